@@ -0,0 +1,69 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import com.mergeconflict.histogram.Histogram;
+import com.mergeconflict.histogram.Histograms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the time to build a histogram of 100 million gaussian observations
+ * from a stream, serially with {@code forEach} and with the collector on
+ * serial and parallel streams. The observations cycle through a precomputed
+ * table, so that generating them costs next to nothing. The parallel speedup
+ * depends on the number of cores in the common fork/join pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CollectorBenchmark {
+    private static final int OBSERVATIONS = 100_000_000;
+    private static final int TABLE = 1 << 20;
+
+    @Param({"100", "1000"})
+    public int maxBins;
+
+    private double[] table;
+
+    @Setup
+    public void setup() {
+        table = Distribution.GAUSSIAN.generate(TABLE, new Random(0));
+    }
+
+    private DoubleStream observations() {
+        return IntStream.range(0, OBSERVATIONS).mapToDouble(i -> table[i & (TABLE - 1)]);
+    }
+
+    @Benchmark
+    public Histogram forEach() {
+        Histogram histogram = new Histogram(maxBins);
+        observations().forEach(histogram::update);
+        return histogram;
+    }
+
+    @Benchmark
+    public Histogram serial() {
+        return Histograms.collect(observations(), maxBins);
+    }
+
+    @Benchmark
+    public Histogram parallel() {
+        return Histograms.collect(observations().parallel(), maxBins);
+    }
+}
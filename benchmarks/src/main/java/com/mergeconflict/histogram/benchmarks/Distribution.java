@@ -0,0 +1,93 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Input distributions for benchmarks, chosen to exercise both well behaved
+ * input and input which is adversarial to the insertion gap.
+ */
+public enum Distribution {
+    GAUSSIAN {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = new double[n];
+            Arrays.setAll(observations, i -> random.nextGaussian());
+            return observations;
+        }
+    },
+    UNIFORM {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = new double[n];
+            Arrays.setAll(observations, i -> random.nextDouble());
+            return observations;
+        }
+    },
+    ASCENDING {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = UNIFORM.generate(n, random);
+            Arrays.sort(observations);
+            return observations;
+        }
+    },
+    DESCENDING {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = ASCENDING.generate(n, random);
+            for (int lhs = 0, rhs = n - 1; lhs < rhs; ++lhs, --rhs) {
+                double swap = observations[lhs];
+                observations[lhs] = observations[rhs];
+                observations[rhs] = swap;
+            }
+            return observations;
+        }
+    },
+    BIMODAL {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = new double[n];
+            Arrays.setAll(observations, i -> random.nextGaussian() + (random.nextBoolean() ? -5 : 5));
+            return observations;
+        }
+    },
+    ZIPF {
+        @Override
+        double[] generate(int n, Random random) {
+            // sample ranks by inverting the cumulative distribution over a
+            // fixed number of ranks, with an exponent of 1.1.
+            double[] cumulative = new double[10000];
+            double total = 0;
+            for (int rank = 0; rank < cumulative.length; ++rank) {
+                total += Math.pow(rank + 1, -1.1);
+                cumulative[rank] = total;
+            }
+            double[] observations = new double[n];
+            for (int i = 0; i < n; ++i) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                observations[i] = (rank < 0 ? -rank - 1 : rank) + 1;
+            }
+            return observations;
+        }
+    },
+    RANDOM_WALK {
+        @Override
+        double[] generate(int n, Random random) {
+            double[] observations = new double[n];
+            double position = 0;
+            for (int i = 0; i < n; ++i) {
+                position += random.nextGaussian();
+                observations[i] = position;
+            }
+            return observations;
+        }
+    };
+
+    /**
+     * @param n the number of observations
+     * @param random the source of randomness, seeded for reproducibility
+     * @return an array of observations drawn from this distribution
+     */
+    abstract double[] generate(int n, Random random);
+}
@@ -0,0 +1,77 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import com.mergeconflict.histogram.FloatHistogram;
+import com.mergeconflict.histogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a {@link FloatHistogram} with a {@link Histogram} of the same size,
+ * updated and queried in the same way as by {@link UpdateBenchmark} and
+ * {@link QueryBenchmark}. The compact histogram takes less memory, but sums
+ * its counts afresh for each query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloatHistogramBenchmark {
+    private static final int OBSERVATIONS = 1 << 20;
+
+    @Param({"100", "1000", "10000"})
+    public int maxBins;
+
+    @Param({"GAUSSIAN", "ASCENDING"})
+    public Distribution distribution;
+
+    private double[] observations;
+    private Histogram wide;
+    private FloatHistogram compact;
+    private int next;
+
+    @Setup
+    public void setup() {
+        observations = distribution.generate(OBSERVATIONS, new Random(0));
+        wide = new Histogram(maxBins);
+        compact = new FloatHistogram(maxBins);
+        for (int i = 0; i < 10 * maxBins; ++i) {
+            wide.update(observations[i]);
+            compact.update(observations[i]);
+        }
+        next = 10 * maxBins;
+    }
+
+    @Benchmark
+    public void wideUpdate() {
+        wide.update(observations[next++ & (OBSERVATIONS - 1)]);
+    }
+
+    @Benchmark
+    public void compactUpdate() {
+        compact.update(observations[next++ & (OBSERVATIONS - 1)]);
+    }
+
+    @Benchmark
+    public double wideQuantile() {
+        return wide.quantile(0.99);
+    }
+
+    @Benchmark
+    public double compactQuantile() {
+        return compact.quantile(0.99);
+    }
+}
@@ -0,0 +1,59 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import com.mergeconflict.histogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of querying a full histogram, both for a typical set of
+ * reporting quantiles and for a single quantile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    @Param({"10", "100", "1000", "10000"})
+    public int maxBins;
+
+    @Param({"GAUSSIAN", "UNIFORM", "ASCENDING", "DESCENDING", "BIMODAL", "ZIPF", "RANDOM_WALK"})
+    public Distribution distribution;
+
+    private Histogram histogram;
+    private final double[] result = new double[QUANTILES.length];
+
+    @Setup
+    public void setup() {
+        histogram = new Histogram(maxBins);
+        for (double observation : distribution.generate(10 * maxBins, new Random(0))) {
+            histogram.update(observation);
+        }
+    }
+
+    @Benchmark
+    public double[] query() {
+        histogram.query(QUANTILES, result);
+        return result;
+    }
+
+    @Benchmark
+    public double quantile() {
+        return histogram.quantile(0.99);
+    }
+}
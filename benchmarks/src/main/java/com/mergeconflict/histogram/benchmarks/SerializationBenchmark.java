@@ -0,0 +1,98 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import com.mergeconflict.histogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a round trip through the compact binary format with a round trip
+ * through Java serialization of a wrapper containing a dense set of quantiles,
+ * which is what callers resorted to before the binary format existed. The
+ * wrapper is built once during setup, so only serialization is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"100", "1000"})
+    public int maxBins;
+
+    private Histogram histogram;
+    private ByteBuffer buffer;
+    private Wrapper wrapper;
+
+    @Setup
+    public void setup() {
+        histogram = new Histogram(maxBins);
+        for (double observation : Distribution.GAUSSIAN.generate(10 * maxBins, new Random(0))) {
+            histogram.update(observation);
+        }
+        buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        wrapper = new Wrapper(histogram);
+    }
+
+    @Benchmark
+    public Histogram compact() {
+        buffer.clear();
+        histogram.writeTo(buffer);
+        buffer.flip();
+        return Histogram.readFrom(buffer);
+    }
+
+    @Benchmark
+    public Object javaSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(wrapper);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * A serializable snapshot of a histogram, as a typical caller would have
+     * written it: the header plus a dense quantile sketch.
+     */
+    private static final class Wrapper implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int maxBins;
+        final long count;
+        final double min, max;
+        final double[] quantiles;
+
+        Wrapper(Histogram histogram) {
+            this.maxBins = histogram.maxBins();
+            this.count = histogram.count();
+            this.min = histogram.min();
+            this.max = histogram.max();
+            this.quantiles = new double[2 * maxBins + 1];
+            for (int q = 0; q < quantiles.length; ++q) {
+                quantiles[q] = histogram.quantile(q / (quantiles.length - 1d));
+            }
+        }
+    }
+}
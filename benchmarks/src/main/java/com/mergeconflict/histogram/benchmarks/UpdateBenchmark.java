@@ -0,0 +1,61 @@
+package com.mergeconflict.histogram.benchmarks;
+
+import com.mergeconflict.histogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the steady-state cost of updating a full histogram with a single
+ * observation. The histogram is filled during setup, and then updated with a
+ * repeating sequence of observations from the given distribution. Buffered
+ * histograms stage four times as many observations as they have bins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+    private static final int OBSERVATIONS = 1 << 20;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int maxBins;
+
+    @Param({"GAUSSIAN", "UNIFORM", "ASCENDING", "DESCENDING", "BIMODAL", "ZIPF", "RANDOM_WALK"})
+    public Distribution distribution;
+
+    @Param({"false", "true"})
+    public boolean buffered;
+
+    private double[] observations;
+    private Histogram histogram;
+    private int next;
+
+    @Setup
+    public void setup() {
+        observations = distribution.generate(OBSERVATIONS, new Random(0));
+        histogram = new Histogram(maxBins, buffered ? 4 * maxBins : 0);
+        for (int i = 0; i < maxBins; ++i) {
+            histogram.update(observations[i]);
+        }
+        next = maxBins;
+    }
+
+    @Benchmark
+    public void update() {
+        histogram.update(observations[next++ & (OBSERVATIONS - 1)]);
+    }
+}
@@ -0,0 +1,144 @@
+package com.mergeconflict.histogram;
+
+import java.util.function.LongSupplier;
+
+/**
+ * <p>A histogram in which the weight of each observation decays exponentially
+ * with its age, so that it reflects a half-life rather than all history. This
+ * uses forward decay, as described by Cormode et al., "Forward Decay: A
+ * Practical Time Decay Model for Streaming Systems": rather than shrinking
+ * every bin as time passes, each new observation is given a weight which
+ * grows exponentially with the time since a fixed landmark. Since the
+ * quantiles depend only on the relative weights of the bins, this is
+ * equivalent, and takes constant time per update.</p>
+ *
+ * <p>Weights are kept in fixed point, as the counts of an ordinary
+ * {@link Histogram}. Once the weight of a new observation has grown by a
+ * factor of 1024 (ten half-lives), the landmark is moved to the present and
+ * the existing counts are scaled down to match, dropping any bins whose
+ * weight has decayed to nothing. The total weight is bounded by roughly
+ * {@code 2^20} times the number of observations per half-life, which must
+ * stay well below {@code 2^63}. A decaying histogram is not thread-safe.</p>
+ */
+public final class DecayingHistogram {
+    // the weight of an observation at the landmark, and the growth in weight
+    // after which the landmark is moved.
+    private static final double UNIT = 1 << 10;
+    private static final double MAX_GROWTH = 1 << 10;
+
+    private final Histogram histogram;
+    private final double rate;
+    private final LongSupplier clock;
+    private long landmark;
+
+    /**
+     * Construct an empty decaying histogram, using {@link System#nanoTime()}
+     * as its clock.
+     * @param maxBins maximum number of bins in the histogram
+     * @param halfLifeNanos the time for the weight of an observation to halve,
+     * in nanoseconds
+     */
+    public DecayingHistogram(int maxBins, long halfLifeNanos) {
+        this(maxBins, halfLifeNanos, System::nanoTime);
+    }
+
+    /**
+     * Construct an empty decaying histogram.
+     * @param maxBins maximum number of bins in the histogram
+     * @param halfLifeNanos the time for the weight of an observation to halve,
+     * in nanoseconds
+     * @param clock a monotonic clock, in nanoseconds
+     */
+    public DecayingHistogram(int maxBins, long halfLifeNanos, LongSupplier clock) {
+        if (halfLifeNanos < 1) {
+            throw new IllegalArgumentException("half-life must be positive: " + halfLifeNanos);
+        }
+        this.histogram = new Histogram(maxBins);
+        this.rate = Math.log(2) / halfLifeNanos;
+        this.clock = clock;
+        this.landmark = clock.getAsLong();
+    }
+
+    /**
+     * @return the maximum number of bins in the histogram
+     */
+    public int maxBins() {
+        return histogram.maxBins();
+    }
+
+    /**
+     * @return the decayed number of observations in the histogram, where each
+     * observation counts for {@code 0.5} after one half-life
+     */
+    public double weight() {
+        return histogram.count() / (UNIT * growth(clock.getAsLong()));
+    }
+
+    /**
+     * Update this histogram with a new observation at the current time.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times at the current time.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        long now = clock.getAsLong();
+        double growth = growth(now);
+        if (growth >= MAX_GROWTH) {
+            histogram.rescale(1 / growth);
+            landmark = now;
+            growth = 1;
+        }
+        histogram.update(observation, Math.max(1, Math.round(UNIT * growth * weight)));
+    }
+
+    /**
+     * Query for approximate values at specified quantiles of the decayed
+     * distribution.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        return histogram.query(quantiles);
+    }
+
+    /**
+     * Query for the approximate value at a single quantile of the decayed
+     * distribution, without allocating.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        return histogram.quantile(quantile);
+    }
+
+    /**
+     * Estimate the decayed fraction of observations less than or equal to a
+     * value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(double value) {
+        return histogram.cdf(value);
+    }
+
+    /**
+     * @return the factor by which the weight of an observation at the given
+     * time exceeds that of one at the landmark
+     */
+    private double growth(long now) {
+        return Math.exp(rate * (now - landmark));
+    }
+}
@@ -0,0 +1,119 @@
+package com.mergeconflict.histogram;
+
+import java.util.Arrays;
+
+/**
+ * A tournament tree over the distances between adjacent centroids, used by
+ * {@link Histogram} and {@link LongHistogram} to find the closest pair of bins
+ * in logarithmic time. Leaf {@code i} holds the distance between the
+ * centroids in slots {@code i} and {@code i + 1}; each internal node holds the
+ * slot of the smallest distance beneath it, preferring the leftmost slot in
+ * case of a tie. The tree is stored implicitly in an array, with the root at
+ * index 1.
+ */
+final class DeltaIndex {
+    private final int pairs, size;
+    private final double[] deltas;
+    private final int[] tree;
+
+    /**
+     * @param pairs the number of adjacent pairs of slots to be indexed
+     */
+    DeltaIndex(int pairs) {
+        int size = 1;
+        while (size < pairs) size *= 2;
+        this.pairs = pairs;
+        this.size = size;
+        this.deltas = new double[size];
+        this.tree = new int[2 * size];
+        Arrays.fill(deltas, Double.POSITIVE_INFINITY);
+        for (int leaf = 0; leaf < size; ++leaf) {
+            tree[size + leaf] = leaf;
+        }
+
+        // nodes over the padding beyond the last pair are never refreshed, so
+        // they must be initialized up front.
+        for (int node = size - 1; node != 0; --node) {
+            tree[node] = tree[2 * node];
+        }
+    }
+
+    /**
+     * @return the left-hand slot of the closest adjacent pair
+     */
+    int min() {
+        return tree[1];
+    }
+
+    /**
+     * Set the distance for the pair starting at slot {@code pair}, and then
+     * recompute its ancestors. This takes O(log n) time.
+     */
+    void set(int pair, double delta) {
+        deltas[pair] = delta;
+        for (int node = (size + pair) >>> 1; node != 0; node >>>= 1) {
+            int lhs = tree[2 * node], rhs = tree[2 * node + 1];
+            tree[node] = deltas[rhs] < deltas[lhs] ? rhs : lhs;
+        }
+    }
+
+    /**
+     * Recompute the distances for the pairs starting at slots {@code from}
+     * through {@code to} inclusive, and then their ancestors. This takes
+     * O(to - from + log n) time.
+     * @return the number of pairs recomputed
+     */
+    int refresh(double[] centroids, int from, int to) {
+        if (from < 0) from = 0;
+        if (to > pairs - 1) to = pairs - 1;
+        if (from > to) return 0;
+
+        for (int pair = from; pair <= to; ++pair) {
+            deltas[pair] = centroids[pair + 1] - centroids[pair];
+        }
+        rebuild(from, to);
+        return to - from + 1;
+    }
+
+    /**
+     * Recompute the distances between integer centroids, as measured by
+     * {@link LongHistogram#delta(long, long)}, in the same way.
+     * @return the number of pairs recomputed
+     */
+    int refresh(long[] centroids, int from, int to) {
+        if (from < 0) from = 0;
+        if (to > pairs - 1) to = pairs - 1;
+        if (from > to) return 0;
+
+        for (int pair = from; pair <= to; ++pair) {
+            deltas[pair] = LongHistogram.delta(centroids[pair], centroids[pair + 1]);
+        }
+        rebuild(from, to);
+        return to - from + 1;
+    }
+
+    /**
+     * Reset the distances for the pairs starting at slots {@code from} through
+     * {@code to} inclusive to infinity, as they were when constructed.
+     */
+    void clear(int from, int to) {
+        if (from < 0) from = 0;
+        if (to > pairs - 1) to = pairs - 1;
+        if (from > to) return;
+
+        Arrays.fill(deltas, from, to + 1, Double.POSITIVE_INFINITY);
+        rebuild(from, to);
+    }
+
+    /**
+     * Recompute the ancestors of the leaves {@code from} through {@code to}.
+     */
+    private void rebuild(int from, int to) {
+        for (int lo = (size + from) >>> 1, hi = (size + to) >>> 1; lo != 0; lo >>>= 1, hi >>>= 1) {
+            for (int node = lo; node <= hi; ++node) {
+                int lhs = tree[2 * node], rhs = tree[2 * node + 1];
+                tree[node] = deltas[rhs] < deltas[lhs] ? rhs : lhs;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.mergeconflict.histogram;
+
+import java.util.Arrays;
+
+/**
+ * A tournament tree over the distances between adjacent single-precision
+ * centroids, used by {@link FloatHistogram} to find the closest pair of bins in
+ * logarithmic time. It works like {@link DeltaIndex}, but the distances are
+ * kept as {@code float}s, and only the internal nodes are stored, since each
+ * leaf just holds its own slot. So it takes 8 to 16 bytes per bin, rather
+ * than 16 to 32, which would otherwise outweigh the bins themselves.
+ */
+final class FloatDeltaIndex {
+    private final int pairs, size;
+    private final float[] deltas;
+    private final int[] tree;
+
+    /**
+     * @param pairs the number of adjacent pairs of slots to be indexed
+     */
+    FloatDeltaIndex(int pairs) {
+        int size = 2;
+        while (size < pairs) size *= 2;
+        this.pairs = pairs;
+        this.size = size;
+        this.deltas = new float[size];
+        this.tree = new int[size];
+        Arrays.fill(deltas, Float.POSITIVE_INFINITY);
+
+        // nodes over the padding beyond the last pair are never refreshed, so
+        // they must be initialized up front.
+        for (int node = size - 1; node != 0; --node) {
+            tree[node] = 2 * node < size ? tree[2 * node] : 2 * node - size;
+        }
+    }
+
+    /**
+     * @return the left-hand slot of the closest adjacent pair
+     */
+    int min() {
+        return tree[1];
+    }
+
+    /**
+     * Recompute the distances for the pairs starting at slots {@code from}
+     * through {@code to} inclusive, and then their ancestors. The distances
+     * are rounded to single precision, as in the linear scan of
+     * {@link FloatHistogram}. This takes O(to - from + log n) time.
+     */
+    void refresh(float[] centroids, int from, int to) {
+        if (from < 0) from = 0;
+        if (to > pairs - 1) to = pairs - 1;
+        if (from > to) return;
+
+        for (int pair = from; pair <= to; ++pair) {
+            deltas[pair] = centroids[pair + 1] - centroids[pair];
+        }
+
+        // the lowest internal nodes compare the leaves beneath them ...
+        int lo = (size + from) >>> 1, hi = (size + to) >>> 1;
+        for (int node = lo; node <= hi; ++node) {
+            int lhs = 2 * node - size, rhs = lhs + 1;
+            tree[node] = deltas[rhs] < deltas[lhs] ? rhs : lhs;
+        }
+
+        // ... and the rest compare the slots held by their children.
+        for (lo >>>= 1, hi >>>= 1; lo != 0; lo >>>= 1, hi >>>= 1) {
+            for (int node = lo; node <= hi; ++node) {
+                int lhs = tree[2 * node], rhs = tree[2 * node + 1];
+                tree[node] = deltas[rhs] < deltas[lhs] ? rhs : lhs;
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.mergeconflict.histogram;
+
+/**
+ * <p>A compact variant of {@link Histogram}, whose bins take half the memory:
+ * each centroid is a {@code float} and each count an {@code int}, for 8 bytes
+ * per bin rather than 16. This suits large numbers of short-lived histograms,
+ * such as one per metric per interval, where single precision is plenty and
+ * no bin sees more than two billion observations. The bins are kept in the
+ * same order, with the same insertion gap, as in {@link Histogram}, and twice
+ * as many of them fit in each cache line walked by an update.</p>
+ *
+ * <p>As in {@link Histogram}, a histogram of 128 bins or more also keeps an
+ * index of the closest pair of bins, but a {@link FloatDeltaIndex}, which
+ * takes 8 to 16 bytes per bin rather than 16 to 32. Nor are the cumulative
+ * counts cached for queries, which take 8 bytes per bin in
+ * {@link Histogram}; instead, each query sums the counts in a linear scan. So
+ * the whole histogram takes 16 to 24 bytes per bin, against 40 to 56 for a
+ * queried {@link Histogram}, at the cost of slower queries.</p>
+ *
+ * <p>Observations are rounded to the nearest {@code float} before they are
+ * binned, although the min and max are exact, and the centroids are clamped
+ * between them for queries. If an update would overflow the count of a bin,
+ * the histogram promotes itself to a wide {@link Histogram}, to which it
+ * delegates from then on.</p>
+ */
+public final class FloatHistogram {
+    private final int maxBins;
+
+    // the compact bins, until a count overflows ...
+    private float[] centroids;
+    private int[] counts;
+    private int bins = 0, gap = 0;
+
+    // the delta index, if any, and the range of slots which have been modified
+    // since it was last refreshed.
+    private FloatDeltaIndex index;
+    private int dirtyFrom, dirtyTo;
+
+    // ... and the wide histogram, once one has.
+    private Histogram histogram;
+
+    private long count = 0;
+    private double
+            min = Double.POSITIVE_INFINITY,
+            max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins.
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public FloatHistogram(int maxBins) {
+        this.maxBins = maxBins;
+        this.centroids = new float[maxBins + 1];
+        this.counts = new int[maxBins + 1];
+        this.index = maxBins < Histogram.INDEX_THRESHOLD ? null : new FloatDeltaIndex(maxBins);
+        this.dirtyFrom = 0;
+        this.dirtyTo = maxBins;
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return whether the bins are still compact, rather than promoted to a
+     * wide {@link Histogram}
+     */
+    public boolean isCompact() {
+        return histogram == null;
+    }
+
+    /**
+     * @return the total number of observations summarized by this histogram
+     */
+    public long count() {
+        return histogram != null ? histogram.count() : count;
+    }
+
+    /**
+     * @return the smallest observation, or positive infinity if empty
+     */
+    public double min() {
+        return histogram != null ? histogram.min() : min;
+    }
+
+    /**
+     * @return the largest observation, or negative infinity if empty
+     */
+    public double max() {
+        return histogram != null ? histogram.max() : max;
+    }
+
+    /**
+     * Update this histogram with a new observation.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        if (histogram == null && (weight > Integer.MAX_VALUE || !insert((float) observation, (int) weight))) {
+            promote();
+        }
+        if (histogram != null) {
+            histogram.update(observation, weight);
+            return;
+        }
+        count += weight;
+        if (observation < min) min = observation;
+        if (observation > max) max = observation;
+    }
+
+    /**
+     * Insert an observation into the compact bins, as in
+     * {@link Histogram#update(double, long)}.
+     * @return false, without changing any bin, if a count would overflow
+     */
+    private boolean insert(float observation, int weight) {
+        // move the gap straight to either end, if the observation lies beyond
+        // it ...
+        int from = gap;
+        if (gap != bins && observation > centroids[bins]) {
+            System.arraycopy(centroids, gap + 1, centroids, gap, bins - gap);
+            System.arraycopy(counts, gap + 1, counts, gap, bins - gap);
+            gap = bins;
+        } else if (gap != 0 && observation < centroids[0]) {
+            System.arraycopy(centroids, 0, centroids, 1, gap);
+            System.arraycopy(counts, 0, counts, 1, gap);
+            gap = 0;
+        }
+
+        // ... and then shift it into place, or update an equal bin in place.
+        while (true) {
+            if (gap != 0) {
+                if (centroids[gap - 1] > observation) {
+                    centroids[gap] = centroids[gap - 1];
+                    counts[gap] = counts[gap - 1];
+                    gap--;
+                    continue;
+                } else if (centroids[gap - 1] == observation) {
+                    touch(from, gap);
+                    return add(gap - 1, weight);
+                }
+            }
+            if (gap != bins) {
+                if (centroids[gap + 1] < observation) {
+                    centroids[gap] = centroids[gap + 1];
+                    counts[gap] = counts[gap + 1];
+                    gap++;
+                    continue;
+                } else if (centroids[gap + 1] == observation) {
+                    touch(from, gap);
+                    return add(gap + 1, weight);
+                }
+            }
+            break;
+        }
+
+        // insert the observation in a new bin at the gap.
+        touch(from, gap);
+        centroids[gap] = observation;
+        counts[gap] = weight;
+        if (bins != maxBins) {
+            bins += 1;
+            gap = bins;
+            return true;
+        }
+
+        // if the histogram is full, merge the closest pair of bins. if their
+        // counts would overflow, the new bin is abandoned in the gap.
+        boolean ascending = gap == bins;
+        int pair = 0;
+        if (index != null) {
+            index.refresh(centroids, dirtyFrom - 1, dirtyTo);
+            pair = index.min();
+        } else {
+            // the distances may round in single precision, which only matters
+            // for near ties, and keeps the scan as narrow as the bins.
+            float minDelta = Float.POSITIVE_INFINITY;
+            for (int bin = 0; bin < bins; ++bin) {
+                float delta = centroids[bin + 1] - centroids[bin];
+                if (delta < minDelta) {
+                    pair = bin;
+                    minDelta = delta;
+                }
+            }
+        }
+        long total = (long) counts[pair] + counts[pair + 1];
+        if (total > Integer.MAX_VALUE) return false;
+        float centroid = (float)
+                (((double) centroids[pair] * counts[pair] +
+                  (double) centroids[pair + 1] * counts[pair + 1]) /
+                 total);
+        if (ascending) {
+            centroids[pair] = centroid;
+            counts[pair] = (int) total;
+            gap = pair + 1;
+        } else {
+            centroids[pair + 1] = centroid;
+            counts[pair + 1] = (int) total;
+            gap = pair;
+        }
+        dirtyFrom = pair;
+        dirtyTo = pair + 1;
+        return true;
+    }
+
+    /**
+     * Add a weight to the count in a slot, unless it would overflow.
+     */
+    private boolean add(int slot, int weight) {
+        if (counts[slot] > Integer.MAX_VALUE - weight) return false;
+        counts[slot] += weight;
+        return true;
+    }
+
+    /**
+     * Widen the range of slots modified since the delta index, if any, was last
+     * refreshed.
+     */
+    private void touch(int from, int to) {
+        if (from > to) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from < dirtyFrom) dirtyFrom = from;
+        if (to > dirtyTo) dirtyTo = to;
+    }
+
+    /**
+     * Copy the compact bins into a wide histogram, and discard them.
+     */
+    private void promote() {
+        histogram = toHistogram();
+        centroids = null;
+        counts = null;
+        index = null;
+    }
+
+    /**
+     * Remove all observations from this histogram, so that it can be reused
+     * without allocating a new one. A promoted histogram stays wide.
+     */
+    public void reset() {
+        if (histogram != null) {
+            histogram.reset();
+            return;
+        }
+        bins = 0;
+        gap = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        dirtyFrom = 0;
+        dirtyTo = maxBins;
+    }
+
+    /**
+     * Query for approximate values at specified quantiles.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        for (int q = 0; q < quantiles.length; ++q) {
+            result[q] = quantile(quantiles[q]);
+        }
+        return result;
+    }
+
+    /**
+     * Query for the approximate value at a single quantile.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        if (histogram != null) return histogram.quantile(quantile);
+        if (quantile <= 0) return min;
+        if (quantile >= 1) return max;
+        if (count == 0) return Double.NaN;
+        double needle = count * quantile;
+
+        // find the first endpoint whose cumulative count reaches the needle, as
+        // Histogram#quantile does with its cached totals, by scanning from
+        // whichever end is nearer. the cumulative count at an endpoint is the
+        // sum of the counts before it, plus half its own.
+        int lhs, rhs;
+        double lhsTotal, rhsTotal;
+        if (2 * needle <= count) {
+            long below = 0;
+            for (rhs = 1; rhs <= bins && below + 0.5d * count(rhs) < needle; ++rhs) {
+                below += count(rhs);
+            }
+            lhs = rhs - 1;
+            lhsTotal = below - 0.5d * count(lhs);
+            rhsTotal = below + 0.5d * count(rhs);
+        } else {
+            long above = 0;
+            for (lhs = bins; lhs > 0 && count - above - 0.5d * count(lhs) >= needle; --lhs) {
+                above += count(lhs);
+            }
+            rhs = lhs + 1;
+            lhsTotal = count - above - 0.5d * count(lhs);
+            rhsTotal = count - above + 0.5d * count(rhs);
+        }
+        return Histogram.interpolate(
+                centroid(lhs), count(lhs), lhsTotal,
+                centroid(rhs), count(rhs), rhsTotal,
+                needle);
+    }
+
+    /**
+     * Estimate the number of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate number of observations at or below the value
+     */
+    public double rank(double value) {
+        if (histogram != null) return histogram.rank(value);
+        if (count == 0 || value < min) return 0;
+        if (value >= max) return count;
+
+        // binary search for the last endpoint at or below the value ...
+        int lo = 0, hi = bins;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (centroid(mid) <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // ... and take the area of its trapezoid up to the value.
+        int rhs = lo + 1;
+        double lhsCentroid = centroid(lo), rhsCentroid = centroid(rhs);
+        long lhsCount = count(lo), rhsCount = count(rhs);
+        double z = (value - lhsCentroid) / (rhsCentroid - lhsCentroid);
+        double valueCount = lhsCount + (rhsCount - lhsCount) * z;
+        return total(lo) + 0.5d * (lhsCount + valueCount) * z;
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(double value) {
+        long count = count();
+        return count == 0 ? Double.NaN : rank(value) / count;
+    }
+
+    /**
+     * @return a new wide histogram with the same bins and bounds as this one
+     */
+    public Histogram toHistogram() {
+        Histogram result = new Histogram(maxBins);
+        if (histogram != null) {
+            result.copyFrom(histogram);
+            return result;
+        }
+
+        // the bins are inserted in ascending order, so each one is appended
+        // without walking the gap. they're clamped, so that the exact min and
+        // max bound them.
+        for (int endpoint = 1; endpoint <= bins; ++endpoint) {
+            result.update(centroid(endpoint), count(endpoint));
+        }
+        result.extend(min, max);
+        return result;
+    }
+
+    /**
+     * @return the cumulative count at an endpoint, summed from whichever end
+     * is nearer
+     */
+    private double total(int endpoint) {
+        if (2 * endpoint <= bins) {
+            long below = 0;
+            for (int lhs = 1; lhs < endpoint; ++lhs) {
+                below += count(lhs);
+            }
+            return below + 0.5d * count(endpoint);
+        }
+        long above = 0;
+        for (int rhs = bins; rhs > endpoint; --rhs) {
+            above += count(rhs);
+        }
+        return count - above - 0.5d * count(endpoint);
+    }
+
+    /**
+     * @return the centroid of an endpoint, as in Histogram#centroid, clamped
+     * between the min and max, which a rounded centroid may otherwise lie just
+     * beyond
+     */
+    private double centroid(int endpoint) {
+        if (endpoint == 0) return min;
+        if (endpoint > bins) return max;
+        double centroid = centroids[endpoint <= gap ? endpoint - 1 : endpoint];
+        return Math.min(Math.max(centroid, min), max);
+    }
+
+    /**
+     * @return the count of an endpoint, as in Histogram#count
+     */
+    private long count(int endpoint) {
+        if (endpoint == 0 || endpoint > bins) return 0;
+        return counts[endpoint <= gap ? endpoint - 1 : endpoint];
+    }
+}
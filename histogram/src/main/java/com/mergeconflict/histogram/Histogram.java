@@ -0,0 +1,1159 @@
+package com.mergeconflict.histogram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>An approximate histogram in constant space, based on Ben-Haim &amp; Yom-Tov,
+ * "A Streaming Parallel Decision Tree Algorithm". The histogram is represented
+ * as an array of contiguous bins of non-uniform width. Each bin is centered
+ * on a certain point, called its "centroid," and summarizes some "count" of
+ * observations. The bins are ordered in the array by their centroids; an array
+ * is used rather than a linked structure for CPU cache friendliness.</p>
+ *
+ * <p>When the histogram is updated with a new observation, a new bin is created
+ * for it, and then the pair of bins with the closest centroids are merged.
+ * Since bins are stored in contiguous memory, this update process requires bins
+ * to be shifted in worst-case linear time. The novel contribution of this
+ * implementation is to maintain an insertion gap adjacent to the most
+ * recently merged bin, such that for "well behaved" input (such as a normal
+ * distribution), the number of shift operations required by an update should be
+ * much less than the total number of bins on average. Observations beyond
+ * either end of the bins, such as those from a monotonic stream, move the gap
+ * to that end with a single bulk copy rather than one shift at a time.</p>
+ *
+ * <p>Once the histogram is full, finding the closest pair of bins to merge
+ * requires a linear scan. For histograms with many bins, the distances between
+ * adjacent centroids are instead kept in a {@link DeltaIndex}, which is
+ * refreshed only over the range of slots touched by shifting the gap, so that
+ * the closest pair can be found in logarithmic time.</p>
+ */
+public final class Histogram {
+    /**
+     * The minimum number of bins for which a {@link DeltaIndex} is maintained.
+     * Below this, a linear scan over contiguous centroids is faster.
+     */
+    static final int INDEX_THRESHOLD = 128;
+
+    /**
+     * The version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    /**
+     * The largest histogram {@link #readFrom(ByteBuffer)} will allocate, so
+     * that a corrupt payload can't exhaust the heap.
+     */
+    static final int MAX_READ_BINS = 1 << 20;
+
+    private final int maxBins;
+    private final double[] centroids;
+    private final long[] counts;
+    private int bins = 0, gap = 0;
+
+    // the delta index, if any, and the range of slots which have been modified
+    // since it was last refreshed.
+    private final DeltaIndex index;
+    private int dirtyFrom, dirtyTo;
+
+    // the cumulative counts at each bin, lazily computed for queries and
+    // invalidated by updates.
+    private double[] totals;
+    private boolean totalsValid = false;
+
+    // the staging buffer for raw observations, if any, which are merged into
+    // the bins in batches.
+    private final double[] buffer;
+    private int buffered = 0;
+
+    // working space for merging the buffer into the bins, if it's buffered,
+    // so that flushing doesn't allocate.
+    private final Scratch scratch;
+
+    // counters describing the work done by updates, if enabled.
+    private UpdateStatistics statistics;
+
+    private long count = 0;
+    private double
+            min = Double.POSITIVE_INFINITY,
+            max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins.
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public Histogram(int maxBins) {
+        this(maxBins, 0);
+    }
+
+    /**
+     * Construct an empty histogram with a maximum number of bins, which
+     * buffers raw observations before merging them into its bins. When the
+     * buffer fills, it is sorted and merged into the bins in a single pass, as
+     * by {@link #update(double[], int, int)}, so that the cost of finding the
+     * closest pairs is amortized over the whole buffer. Queries flush the
+     * buffer transparently. A buffer of around four times the maximum number
+     * of bins is a good choice; buffering pays off for histograms of hundreds
+     * of bins or more.
+     * @param maxBins maximum number of bins in the histogram
+     * @param bufferSize number of observations to buffer, or 0 to merge each
+     * observation as it arrives
+     */
+    public Histogram(int maxBins, int bufferSize) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("buffer size must not be negative: " + bufferSize);
+        }
+        this.maxBins = maxBins;
+        this.centroids = new double[maxBins + 1];
+        this.counts = new long[maxBins + 1];
+        this.index = maxBins < INDEX_THRESHOLD ? null : new DeltaIndex(maxBins);
+        this.dirtyFrom = 0;
+        this.dirtyTo = maxBins;
+        this.buffer = bufferSize == 0 ? null : new double[bufferSize];
+        this.scratch = bufferSize == 0 ? null : new Scratch(bufferSize, maxBins);
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return the total number of observations summarized by this histogram
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the smallest observation, or positive infinity if empty
+     */
+    public double min() {
+        return min;
+    }
+
+    /**
+     * @return the largest observation, or negative infinity if empty
+     */
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Start counting the work done by each update, for diagnosing slow
+     * updates. Until this is called, no statistics are kept, and updates pay
+     * nothing for them.
+     * @return the statistics for this histogram, which are kept up to date
+     */
+    public UpdateStatistics enableStatistics() {
+        if (statistics == null) statistics = new UpdateStatistics();
+        return statistics;
+    }
+
+    /**
+     * @return the statistics for this histogram, or null if they haven't been
+     * enabled
+     */
+    public UpdateStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * Remove all observations from this histogram, so that it can be reused
+     * without allocating a new one.
+     */
+    public void reset() {
+        buffered = 0;
+        bins = 0;
+        gap = 0;
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        dirtyFrom = 0;
+        dirtyTo = maxBins;
+        totalsValid = false;
+    }
+
+    /**
+     * Update this histogram with a new observation.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times. This is equivalent to, but much faster than, updating the
+     * histogram with the same observation {@code weight} times in a row.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        count += weight;
+        totalsValid = false;
+        if (observation < min) min = observation;
+        if (observation > max) max = observation;
+
+        // stage unweighted observations in the buffer, if there is one.
+        if (buffer != null) {
+            if (weight == 1) {
+                buffer[buffered++] = observation;
+                if (buffered == buffer.length) flush();
+                return;
+            }
+            flush();
+        }
+
+        // an observation beyond either end of the bins, as in a monotonic
+        // stream, would otherwise walk the gap across every bin in between.
+        // move the gap straight to that end with a single bulk copy instead.
+        int from = gap;
+        if (gap != bins && observation > centroids[bins]) {
+            System.arraycopy(centroids, gap + 1, centroids, gap, bins - gap);
+            System.arraycopy(counts, gap + 1, counts, gap, bins - gap);
+            gap = bins;
+        } else if (gap != 0 && observation < centroids[0]) {
+            System.arraycopy(centroids, 0, centroids, 1, gap);
+            System.arraycopy(counts, 0, counts, 1, gap);
+            gap = 0;
+        }
+        int start = gap;
+
+        // shift the insertion gap left or right to maintain ordering. if we
+        // happen to find a bin whose centroid is equal to the observation,
+        // just update its count in place.
+        while (true) {
+            // look at the bin to the left of the gap ...
+            if (gap != 0) {
+                if (centroids[gap - 1] > observation) {
+                    // shift the gap to the left and try again.
+                    centroids[gap] = centroids[gap - 1];
+                    counts[gap] = counts[gap - 1];
+                    gap--;
+                    continue;
+                } else if (centroids[gap - 1] == observation) {
+                    counts[gap - 1] += weight;
+                    touch(from, gap);
+                    if (statistics != null) {
+                        statistics.recordUpdate(Math.abs(gap - start), start != from, true);
+                    }
+                    return;
+                }
+            }
+
+            // look at the bin to the right of the gap ...
+            if (gap != bins) {
+                if (centroids[gap + 1] < observation) {
+                    // shift the gap to the right and try again.
+                    centroids[gap] = centroids[gap + 1];
+                    counts[gap] = counts[gap + 1];
+                    gap++;
+                    continue;
+                } else if (centroids[gap + 1] == observation) {
+                    counts[gap + 1] += weight;
+                    touch(from, gap);
+                    if (statistics != null) {
+                        statistics.recordUpdate(Math.abs(gap - start), start != from, true);
+                    }
+                    return;
+                }
+            }
+
+            // if the gap is in the right place, we're ready to insert.
+            break;
+        }
+
+        // insert the observation in a new bin at the gap
+        touch(from, gap);
+        if (statistics != null) {
+            statistics.recordUpdate(Math.abs(gap - start), start != from, false);
+        }
+        centroids[gap] = observation;
+        counts[gap] = weight;
+
+        // if the histogram isn't yet full, just stick the gap back at the end.
+        if (bins != maxBins) {
+            bins += 1;
+            gap = bins;
+            return;
+        }
+
+        // if the histogram is full, find the adjacent bins with the closest
+        // centroids and merge them.
+        boolean ascending = gap == bins;
+        int pair = 0, scanned = bins;
+        if (index != null) {
+            scanned = index.refresh(centroids, dirtyFrom - 1, dirtyTo);
+            pair = index.min();
+        } else {
+            double minDelta = Double.POSITIVE_INFINITY;
+            for (int bin = 0; bin < bins; ++bin) {
+                double delta = centroids[bin + 1] - centroids[bin];
+                if (delta < minDelta) {
+                    pair = bin;
+                    minDelta = delta;
+                }
+            }
+        }
+        double centroid =
+                (centroids[pair] * counts[pair] +
+                 centroids[pair + 1] * counts[pair + 1]) /
+                (counts[pair] + counts[pair + 1]);
+        long total = counts[pair] + counts[pair + 1];
+
+        // the choice whether to leave the gap on the left or right of the new
+        // merged bin is otherwise arbitrary, but if the observation was
+        // appended at the end, the next one probably will be too, so leave it
+        // on the right, closer to the end.
+        if (ascending) {
+            centroids[pair] = centroid;
+            counts[pair] = total;
+            gap = pair + 1;
+        } else {
+            centroids[pair + 1] = centroid;
+            counts[pair + 1] = total;
+            gap = pair;
+        }
+        dirtyFrom = pair;
+        dirtyTo = pair + 1;
+        if (statistics != null) statistics.recordMerge(scanned);
+    }
+
+    /**
+     * Update this histogram with a batch of new observations. The batch is
+     * sorted and combined with the existing bins in a single ordered pass, and
+     * then the closest bins are merged until no more than {@code maxBins}
+     * remain. This is much faster than updating with each observation in turn,
+     * although the resulting bins may differ slightly, since the closest pairs
+     * are merged once per batch rather than once per observation.
+     * @param observations an array containing the new data points
+     * @param offset the index of the first observation in the array
+     * @param length the number of observations
+     */
+    public void update(double[] observations, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > observations.length) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + ", length " + length + ", array length " + observations.length);
+        }
+        if (length == 0) return;
+
+        double[] sorted = Arrays.copyOfRange(observations, offset, offset + length);
+        Arrays.sort(sorted);
+        count += length;
+        if (sorted[0] < min) min = sorted[0];
+        if (sorted[length - 1] > max) max = sorted[length - 1];
+        insertSorted(sorted, length);
+    }
+
+    /**
+     * Merge any buffered observations into the bins. This happens
+     * automatically whenever the buffer fills, and before any query.
+     */
+    public void flush() {
+        if (buffered == 0) return;
+        Arrays.sort(buffer, 0, buffered);
+        int length = buffered;
+        buffered = 0;
+        insertSorted(buffer, length);
+    }
+
+    /**
+     * Combine sorted observations with the existing bins, merging the closest
+     * bins until no more than {@code maxBins} remain. The given array is
+     * overwritten. Note that this doesn't update the count, min or max.
+     */
+    private void insertSorted(double[] sorted, int length) {
+        // use the preallocated working space if there's enough of it.
+        boolean reuse = scratch != null && length <= buffer.length;
+
+        // collapse runs of equal observations into weighted bins ...
+        long[] weights = reuse ? scratch.weights : new long[length];
+        int runs = 0;
+        for (int i = 0; i < length; ++i) {
+            if (runs != 0 && sorted[runs - 1] == sorted[i]) {
+                weights[runs - 1]++;
+            } else {
+                sorted[runs] = sorted[i];
+                weights[runs] = 1;
+                runs++;
+            }
+        }
+
+        // ... and merge them with the existing bins.
+        double[] mergedCentroids = reuse ? scratch.centroids : new double[bins + runs];
+        long[] mergedCounts = reuse ? scratch.counts : new long[bins + runs];
+        int mergedBins = mergeBins(
+                centroids, counts, bins, gap,
+                sorted, weights, runs, runs,
+                mergedCentroids, mergedCounts);
+        load(mergedCentroids, mergedCounts, reuse ?
+                compact(mergedCentroids, mergedCounts, mergedBins, maxBins,
+                        scratch.prev, scratch.next, scratch.index) :
+                compact(mergedCentroids, mergedCounts, mergedBins, maxBins));
+    }
+
+    /**
+     * Working space for {@link #insertSorted(double[], int)}, large enough for
+     * a full buffer of observations together with every bin.
+     */
+    private static final class Scratch {
+        final long[] weights;
+        final double[] centroids;
+        final long[] counts;
+        final int[] prev, next;
+        final DeltaIndex index;
+
+        Scratch(int observations, int maxBins) {
+            int bins = observations + maxBins;
+            this.weights = new long[observations];
+            this.centroids = new double[bins];
+            this.counts = new long[bins];
+            this.prev = new int[bins];
+            this.next = new int[bins];
+            this.index = new DeltaIndex(bins - 1);
+        }
+    }
+
+    /**
+     * Mark the range of slots between two gap positions as modified since the
+     * delta index was last refreshed.
+     */
+    private void touch(int from, int to) {
+        if (from > to) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from < dirtyFrom) dirtyFrom = from;
+        if (to > dirtyTo) dirtyTo = to;
+    }
+
+    /**
+     * Merge another histogram into this one, as described by the "merge"
+     * procedure in the paper. The bins of both histograms are combined in a
+     * single ordered pass, and then the closest bins are merged until no more
+     * than {@code maxBins} remain. The other histogram is not modified.
+     * @param other the histogram to be merged into this one
+     */
+    public void merge(Histogram other) {
+        flush();
+        other.flush();
+        double[] mergedCentroids = new double[bins + other.bins];
+        long[] mergedCounts = new long[bins + other.bins];
+        int mergedBins = mergeBins(
+                centroids, counts, bins, gap,
+                other.centroids, other.counts, other.bins, other.gap,
+                mergedCentroids, mergedCounts);
+
+        count += other.count;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+        load(mergedCentroids, mergedCounts,
+                compact(mergedCentroids, mergedCounts, mergedBins, maxBins));
+    }
+
+    /**
+     * Merge any number of histograms into a new histogram, whose maximum number
+     * of bins is the largest among them. The histograms are merged pairwise in
+     * a balanced tree, and the closest bins are merged only once at the end.
+     * None of the given histograms are modified.
+     * @param histograms the histograms to be merged
+     * @return a new histogram summarizing all the given histograms
+     */
+    public static Histogram mergeAll(Histogram... histograms) {
+        if (histograms.length == 0) {
+            throw new IllegalArgumentException("no histograms to merge");
+        }
+
+        // copy the bins of each histogram out, without their insertion gaps.
+        int maxBins = 0;
+        double[][] allCentroids = new double[histograms.length][];
+        long[][] allCounts = new long[histograms.length][];
+        int[] allBins = new int[histograms.length];
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int h = 0; h < histograms.length; ++h) {
+            Histogram histogram = histograms[h];
+            histogram.flush();
+            if (histogram.maxBins > maxBins) maxBins = histogram.maxBins;
+            allCentroids[h] = new double[histogram.bins];
+            allCounts[h] = new long[histogram.bins];
+            allBins[h] = histogram.copyBins(allCentroids[h], allCounts[h]);
+            count += histogram.count;
+            if (histogram.min < min) min = histogram.min;
+            if (histogram.max > max) max = histogram.max;
+        }
+
+        // merge adjacent pairs until only one remains ...
+        for (int stride = 1; stride < histograms.length; stride *= 2) {
+            for (int lhs = 0; lhs + stride < histograms.length; lhs += 2 * stride) {
+                int rhs = lhs + stride;
+                double[] mergedCentroids = new double[allBins[lhs] + allBins[rhs]];
+                long[] mergedCounts = new long[allBins[lhs] + allBins[rhs]];
+                allBins[lhs] = mergeBins(
+                        allCentroids[lhs], allCounts[lhs], allBins[lhs], allBins[lhs],
+                        allCentroids[rhs], allCounts[rhs], allBins[rhs], allBins[rhs],
+                        mergedCentroids, mergedCounts);
+                allCentroids[lhs] = mergedCentroids;
+                allCounts[lhs] = mergedCounts;
+            }
+        }
+
+        Histogram result = new Histogram(maxBins);
+        result.count = count;
+        result.min = min;
+        result.max = max;
+        result.load(allCentroids[0], allCounts[0],
+                compact(allCentroids[0], allCounts[0], allBins[0], maxBins));
+        return result;
+    }
+
+    /**
+     * Build a histogram from a large array of observations in parallel. The
+     * array is split into chunks, each of which is sorted and combined into a
+     * partial histogram in a single pass, as by
+     * {@link #update(double[], int, int)}, and the partial histograms are
+     * merged pairwise as their tasks complete. The array is not modified.
+     * @param observations an array containing the data points
+     * @param maxBins maximum number of bins in the histogram
+     * @param pool the pool in which to run the tasks
+     * @return a new histogram summarizing the observations
+     */
+    public static Histogram build(double[] observations, int maxBins, ForkJoinPool pool) {
+        return pool.invoke(new BuildTask(observations, 0, observations.length, maxBins));
+    }
+
+    /**
+     * A task which builds a histogram from a range of an array, splitting it
+     * in half until it's small enough to build sequentially.
+     */
+    private static final class BuildTask extends RecursiveTask<Histogram> {
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 16;
+
+        private final double[] observations;
+        private final int offset, length, maxBins;
+
+        BuildTask(double[] observations, int offset, int length, int maxBins) {
+            this.observations = observations;
+            this.offset = offset;
+            this.length = length;
+            this.maxBins = maxBins;
+        }
+
+        @Override
+        protected Histogram compute() {
+            if (length <= SEQUENTIAL_THRESHOLD) {
+                Histogram histogram = new Histogram(maxBins);
+                histogram.update(observations, offset, length);
+                return histogram;
+            }
+            int half = length >>> 1;
+            BuildTask lhs = new BuildTask(observations, offset, half, maxBins);
+            lhs.fork();
+            Histogram rhs = new BuildTask(observations, offset + half, length - half, maxBins).compute();
+            Histogram histogram = lhs.join();
+            histogram.merge(rhs);
+            return histogram;
+        }
+    }
+
+    /**
+     * Combine the bins of two histograms in order, skipping their respective
+     * insertion gaps. Bins with equal centroids are combined into one.
+     * @return the number of bins written to the output arrays
+     */
+    private static int mergeBins(
+            double[] lhsCentroids, long[] lhsCounts, int lhsBins, int lhsGap,
+            double[] rhsCentroids, long[] rhsCounts, int rhsBins, int rhsGap,
+            double[] centroids, long[] counts) {
+        int lhs = 0, rhs = 0, bins = 0;
+        while (lhs < lhsBins || rhs < rhsBins) {
+            // take the next bin from whichever side has the smaller centroid ...
+            double centroid;
+            long count;
+            int lhsSlot = lhs < lhsGap ? lhs : lhs + 1;
+            int rhsSlot = rhs < rhsGap ? rhs : rhs + 1;
+            if (rhs == rhsBins ||
+                    (lhs != lhsBins && lhsCentroids[lhsSlot] <= rhsCentroids[rhsSlot])) {
+                centroid = lhsCentroids[lhsSlot];
+                count = lhsCounts[lhsSlot];
+                lhs++;
+            } else {
+                centroid = rhsCentroids[rhsSlot];
+                count = rhsCounts[rhsSlot];
+                rhs++;
+            }
+
+            // ... and either combine it with the previous bin or append it.
+            if (bins != 0 && centroids[bins - 1] == centroid) {
+                counts[bins - 1] += count;
+            } else {
+                centroids[bins] = centroid;
+                counts[bins] = count;
+                bins++;
+            }
+        }
+        return bins;
+    }
+
+    /**
+     * Repeatedly merge the adjacent pair of bins with the closest centroids,
+     * until no more than {@code maxBins} remain. The distances between pairs
+     * are kept in a {@link DeltaIndex}, so this takes O(n log n) time rather
+     * than the O(n^2) time required by repeated linear scans.
+     * @return the number of bins remaining at the front of the arrays
+     */
+    private static int compact(double[] centroids, long[] counts, int bins, int maxBins) {
+        if (bins <= maxBins) return bins;
+        return compact(centroids, counts, bins, maxBins, new int[bins], new int[bins], new DeltaIndex(bins - 1));
+    }
+
+    /**
+     * Compact bins as above, using preallocated working space at least as
+     * large as the number of bins. The index must be clear to begin with, and
+     * is left clear to be used again.
+     */
+    private static int compact(
+            double[] centroids, long[] counts, int bins, int maxBins,
+            int[] prev, int[] next, DeltaIndex index) {
+        if (bins <= maxBins) return bins;
+
+        // link the bins together so that merged bins can be skipped over.
+        for (int bin = 0; bin < bins; ++bin) {
+            prev[bin] = bin - 1;
+            next[bin] = bin + 1;
+        }
+        index.refresh(centroids, 0, bins - 2);
+
+        for (int remaining = bins; remaining > maxBins; --remaining) {
+            // merge the left-hand bin into the right-hand one, and mark it as
+            // removed with a zero count.
+            int lhs = index.min(), rhs = next[lhs];
+            centroids[rhs] =
+                    (centroids[lhs] * counts[lhs] +
+                     centroids[rhs] * counts[rhs]) /
+                    (counts[lhs] + counts[rhs]);
+            counts[rhs] = counts[lhs] + counts[rhs];
+            counts[lhs] = 0;
+            index.set(lhs, Double.POSITIVE_INFINITY);
+
+            // unlink the removed bin, and update the distances on either side
+            // of the merged bin.
+            int before = prev[lhs], after = next[rhs];
+            prev[rhs] = before;
+            if (before >= 0) {
+                next[before] = rhs;
+                index.set(before, centroids[rhs] - centroids[before]);
+            }
+            if (after < bins) {
+                index.set(rhs, centroids[after] - centroids[rhs]);
+            }
+        }
+
+        // squeeze the removed bins out of the arrays, and clear the index for
+        // next time.
+        int remaining = 0;
+        for (int bin = 0; bin < bins; ++bin) {
+            if (counts[bin] == 0) continue;
+            centroids[remaining] = centroids[bin];
+            counts[remaining] = counts[bin];
+            remaining++;
+        }
+        index.clear(0, bins - 2);
+        return remaining;
+    }
+
+    /**
+     * @return an upper bound on the number of bytes written by
+     * {@link #writeTo(ByteBuffer)}
+     */
+    public int maxSerializedSize() {
+        flush();
+        return 1 + 3 * Varint.MAX_LONG_BYTES + 16 + bins * (9 + Varint.MAX_LONG_BYTES);
+    }
+
+    /**
+     * Write this histogram to a buffer in a compact binary format, which can be
+     * read back with {@link #readFrom(ByteBuffer)}. The format consists of a
+     * version byte, then the maximum number of bins, the number of bins and
+     * the count as varints, then the min and max as big-endian doubles,
+     * whatever the buffer's byte order, and then each bin in order, as its
+     * centroid followed by its count as a varint. The insertion gap is not
+     * written.
+     *
+     * <p>Each centroid is XORed with the bits of the previous one, and only
+     * the bytes between the leading and trailing zero bytes of the result are
+     * written, after a byte holding the number of each. Neighbouring centroids
+     * share their sign, exponent and top mantissa bits, but a merged centroid
+     * still has a full mantissa, so typically takes about seven bytes. Integer
+     * observations have few mantissa bits, so typically take two or three.</p>
+     * @param buffer the buffer to write to, which must have at least
+     * {@link #maxSerializedSize()} bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        flush();
+        buffer.put(FORMAT_VERSION);
+        Varint.putUnsigned(buffer, maxBins);
+        Varint.putUnsigned(buffer, bins);
+        Varint.putUnsigned(buffer, count);
+        putBigEndian(buffer, min);
+        putBigEndian(buffer, max);
+
+        long previous = 0;
+        for (int bin = 0; bin < bins; ++bin) {
+            int slot = bin < gap ? bin : bin + 1;
+            long bits = Double.doubleToRawLongBits(centroids[slot]);
+            putXor(buffer, bits ^ previous);
+            Varint.putUnsigned(buffer, counts[slot]);
+            previous = bits;
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo(ByteBuffer)}.
+     * @param buffer the buffer to read from
+     * @return a new histogram equal to the one written
+     * @throws IllegalArgumentException if the buffer doesn't contain a
+     * histogram in a supported format, or its maximum number of bins exceeds
+     * {@code 2^20}
+     */
+    public static Histogram readFrom(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unsupported histogram format version: " + version);
+        }
+        long maxBins = Varint.getUnsigned(buffer), bins = Varint.getUnsigned(buffer);
+        checkBins(maxBins, bins, buffer);
+
+        Histogram histogram = new Histogram((int) maxBins);
+        long count = Varint.getUnsigned(buffer), total = 0;
+        histogram.count = count;
+        histogram.min = getBigEndian(buffer);
+        histogram.max = getBigEndian(buffer);
+        long previous = 0;
+        for (int bin = 0; bin < bins; ++bin) {
+            long bits = previous ^ getXor(buffer);
+            histogram.centroids[bin] = Double.longBitsToDouble(bits);
+            histogram.counts[bin] = checkCount(Varint.getUnsigned(buffer), count - total);
+            total += histogram.counts[bin];
+            previous = bits;
+        }
+        if (total != count) {
+            throw new IllegalArgumentException("bins add up to " + total + ", not " + count);
+        }
+        histogram.bins = (int) bins;
+        histogram.gap = (int) bins;
+        return histogram;
+    }
+
+    /**
+     * Check the number of bins read from a serialized histogram before
+     * allocating it. Each bin takes at least two bytes, so there can't be more
+     * than half as many as there are bytes remaining.
+     */
+    static void checkBins(long maxBins, long bins, ByteBuffer buffer) {
+        if (maxBins > MAX_READ_BINS || bins > maxBins || bins > buffer.remaining() / 2) {
+            throw new IllegalArgumentException("invalid histogram of " + bins + " / " + maxBins + " bins");
+        }
+    }
+
+    /**
+     * Check the count of a bin read from a serialized histogram, which must be
+     * positive and no more than the observations not yet accounted for.
+     * @return the count
+     */
+    static long checkCount(long count, long remaining) {
+        if (count < 1 || count > remaining) {
+            throw new IllegalArgumentException("invalid bin count " + count + " of " + remaining + " remaining");
+        }
+        return count;
+    }
+
+    /**
+     * Write the bytes of a value between its leading and trailing zero bytes,
+     * after a byte holding the number of leading zero bytes in its high nibble
+     * and the number of trailing zero bytes in its low nibble. Zero is written
+     * as eight leading zero bytes and nothing else.
+     */
+    private static void putXor(ByteBuffer buffer, long value) {
+        int leading = Long.numberOfLeadingZeros(value) >>> 3;
+        int trailing = value == 0 ? 0 : Long.numberOfTrailingZeros(value) >>> 3;
+        buffer.put((byte) (leading << 4 | trailing));
+        for (int shift = 56 - 8 * leading; shift >= 8 * trailing; shift -= 8) {
+            buffer.put((byte) (value >>> shift));
+        }
+    }
+
+    private static long getXor(ByteBuffer buffer) {
+        int header = buffer.get() & 0xff, leading = header >>> 4, trailing = header & 0xf;
+        if (leading + trailing > 8) {
+            throw new IllegalArgumentException("malformed centroid header: " + header);
+        }
+        long value = 0;
+        for (int i = leading + trailing; i < 8; ++i) {
+            value = value << 8 | (buffer.get() & 0xff);
+        }
+        return trailing == 8 ? 0 : value << 8 * trailing;
+    }
+
+    private static void putBigEndian(ByteBuffer buffer, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        buffer.putLong(buffer.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits));
+    }
+
+    private static double getBigEndian(ByteBuffer buffer) {
+        long bits = buffer.getLong();
+        return Double.longBitsToDouble(buffer.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits));
+    }
+
+    /**
+     * @return whether this histogram stages observations in a buffer
+     */
+    boolean isBuffered() {
+        return buffer != null;
+    }
+
+    /**
+     * Replace the contents of this histogram with a copy of another histogram
+     * with the same maximum number of bins.
+     */
+    void copyFrom(Histogram other) {
+        if (other.maxBins != maxBins) {
+            throw new IllegalArgumentException(
+                    "cannot copy a histogram of " + other.maxBins + " bins into " + maxBins);
+        }
+        other.flush();
+        buffered = 0;
+        System.arraycopy(other.centroids, 0, centroids, 0, maxBins + 1);
+        System.arraycopy(other.counts, 0, counts, 0, maxBins + 1);
+        bins = other.bins;
+        gap = other.gap;
+        count = other.count;
+        min = other.min;
+        max = other.max;
+        dirtyFrom = 0;
+        dirtyTo = maxBins;
+        totalsValid = false;
+    }
+
+    /**
+     * Scale the count of every bin by a factor, rounding to the nearest whole
+     * count and dropping any bins which round to zero. If the first or last
+     * bin is dropped, the min or max is pulled in to the new first or last
+     * bin, so that the tails don't stretch out to observations which have
+     * since been dropped.
+     * @param factor the factor by which to scale each count, from 0 to 1
+     */
+    void rescale(double factor) {
+        flush();
+        int remaining = 0;
+        long total = 0;
+        boolean firstDropped = false, lastDropped = false;
+        for (int bin = 0; bin < bins; ++bin) {
+            int slot = bin < gap ? bin : bin + 1;
+            long scaled = Math.round(counts[slot] * factor);
+            if (scaled == 0) {
+                if (remaining == 0) firstDropped = true;
+                lastDropped = true;
+                continue;
+            }
+            centroids[remaining] = centroids[slot];
+            counts[remaining] = scaled;
+            total += scaled;
+            remaining++;
+            lastDropped = false;
+        }
+        load(centroids, counts, remaining);
+        count = total;
+        if (count == 0) {
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            return;
+        }
+        if (firstDropped) min = centroids[0];
+        if (lastDropped) max = centroids[remaining - 1];
+    }
+
+    /**
+     * Widen the min and max of this histogram to include the given bounds,
+     * which may lie beyond every bin, as when copying a {@link FloatHistogram}
+     * whose extreme bins were clamped within its exact bounds.
+     */
+    void extend(double min, double max) {
+        if (min < this.min) this.min = min;
+        if (max > this.max) this.max = max;
+    }
+
+    /**
+     * @return the number of bins currently in use
+     */
+    int bins() {
+        flush();
+        return bins;
+    }
+
+    /**
+     * Copy the bins of this histogram out in order, without the insertion gap.
+     * @return the number of bins written to the output arrays
+     */
+    int copyBins(double[] centroids, long[] counts) {
+        flush();
+        System.arraycopy(this.centroids, 0, centroids, 0, gap);
+        System.arraycopy(this.counts, 0, counts, 0, gap);
+        System.arraycopy(this.centroids, gap + 1, centroids, gap, bins - gap);
+        System.arraycopy(this.counts, gap + 1, counts, gap, bins - gap);
+        return bins;
+    }
+
+    /**
+     * Replace the bins of this histogram with the given ordered bins, leaving
+     * the insertion gap at the end.
+     */
+    private void load(double[] centroids, long[] counts, int bins) {
+        System.arraycopy(centroids, 0, this.centroids, 0, bins);
+        System.arraycopy(counts, 0, this.counts, 0, bins);
+        this.bins = bins;
+        this.gap = bins;
+        this.dirtyFrom = 0;
+        this.dirtyTo = maxBins;
+        this.totalsValid = false;
+    }
+
+    /**
+     * Query for approximate values at specified quantiles. For example:
+     * <pre>{@code double[] result = histogram.query(0.00, 0.25, 0.50, 0.75, 1.00);}</pre>
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        query(quantiles, result);
+        return result;
+    }
+
+    /**
+     * Query for approximate values at specified quantiles, without allocating.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @param result an array at least as long as {@code quantiles}, in which
+     * to store the approximate values at the specified quantiles
+     */
+    public void query(double[] quantiles, double[] result) {
+        if (result.length < quantiles.length) {
+            throw new IllegalArgumentException(
+                    "result array of length " + result.length + " is shorter than " + quantiles.length + " quantiles");
+        }
+        for (int q = 0; q < quantiles.length; ++q) {
+            result[q] = quantile(quantiles[q]);
+        }
+    }
+
+    /**
+     * Query for the approximate value at a single quantile, without allocating.
+     * The cumulative counts at each bin are computed once and cached until the
+     * next update, so that each query takes logarithmic time.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        flush();
+        if (quantile <= 0) return min;
+        if (quantile >= 1) return max;
+        if (count == 0) return Double.NaN;
+        double needle = count * quantile;
+
+        // the bins are treated as the endpoints of a sequence of trapezoids,
+        // together with the min and max, which have zero count. binary search
+        // for the first endpoint whose cumulative count reaches the needle.
+        double[] totals = totals();
+        int lo = 1, hi = bins + 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (totals[mid] < needle) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        // approximate the value at the requested quantile ...
+        int lhs = lo - 1, rhs = lo;
+        return interpolate(
+                centroid(lhs), count(lhs), totals[lhs],
+                centroid(rhs), count(rhs), totals[rhs],
+                needle);
+    }
+
+    /**
+     * Estimate the number of observations less than or equal to a value, as
+     * described by the "sum" procedure in the paper. This is the inverse of
+     * {@link #quantile(double)}, scaled by the count.
+     * @param value the value to be ranked
+     * @return the approximate number of observations at or below the value
+     */
+    public double rank(double value) {
+        flush();
+        if (count == 0 || value < min) return 0;
+        if (value >= max) return count;
+
+        // binary search for the last endpoint at or below the value ...
+        int lo = 0, hi = bins;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (centroid(mid) <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return rank(lo, value, totals());
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(double value) {
+        return count == 0 ? Double.NaN : rank(value) / count;
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to each of a
+     * number of values, without allocating. If the values are in ascending
+     * order, this takes a single pass over the bins.
+     * @param values an array of values to be ranked, preferably in ascending
+     * order
+     * @param result an array at least as long as {@code values}, in which to
+     * store the approximate cumulative distribution function at each value
+     */
+    public void cdf(double[] values, double[] result) {
+        flush();
+        if (result.length < values.length) {
+            throw new IllegalArgumentException(
+                    "result array of length " + result.length + " is shorter than " + values.length + " values");
+        }
+        int lhs = 0;
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < values.length; ++v) {
+            double value = values[v];
+            if (count == 0 || value < min || value >= max) {
+                result[v] = cdf(value);
+                continue;
+            }
+
+            // walk forward from the previous value's endpoint if we can, or
+            // start over otherwise ...
+            if (value < previous) {
+                result[v] = cdf(value);
+                continue;
+            }
+            while (lhs < bins && centroid(lhs + 1) <= value) lhs++;
+            result[v] = rank(lhs, value, totals()) / count;
+            previous = value;
+        }
+    }
+
+    /**
+     * Estimate the number of observations at or below a value, which lies
+     * within the trapezoid to the right of the given endpoint.
+     */
+    private double rank(int lhs, double value, double[] totals) {
+        int rhs = lhs + 1;
+        double lhsCentroid = centroid(lhs), rhsCentroid = centroid(rhs);
+        long lhsCount = count(lhs), rhsCount = count(rhs);
+
+        // interpolate the count at the value, and take the area of the
+        // trapezoid up to that point.
+        double z = (value - lhsCentroid) / (rhsCentroid - lhsCentroid);
+        double valueCount = lhsCount + (rhsCount - lhsCount) * z;
+        return totals[lhs] + 0.5d * (lhsCount + valueCount) * z;
+    }
+
+    /**
+     * @return the cumulative count at each endpoint, computing it if necessary
+     */
+    private double[] totals() {
+        if (totalsValid) return totals;
+        if (totals == null) totals = new double[maxBins + 2];
+
+        // each trapezoid between two endpoints has an area equal to the mean
+        // of their counts.
+        double total = 0;
+        long lhsCount = 0;
+        for (int endpoint = 1; endpoint <= bins + 1; ++endpoint) {
+            long rhsCount = count(endpoint);
+            total += 0.5d * (lhsCount + rhsCount);
+            totals[endpoint] = total;
+            lhsCount = rhsCount;
+        }
+        totalsValid = true;
+        return totals;
+    }
+
+    /**
+     * @return the centroid of an endpoint: 0 for the min, {@code bins + 1} for
+     * the max, and the bins in order in between, skipping the gap.
+     */
+    private double centroid(int endpoint) {
+        if (endpoint == 0) return min;
+        if (endpoint > bins) return max;
+        return centroids[endpoint <= gap ? endpoint - 1 : endpoint];
+    }
+
+    /**
+     * @return the count of an endpoint, which is 0 for the min and max.
+     */
+    private long count(int endpoint) {
+        if (endpoint == 0 || endpoint > bins) return 0;
+        return counts[endpoint <= gap ? endpoint - 1 : endpoint];
+    }
+
+    /**
+     * Approximate the value at which the cumulative count reaches the needle,
+     * within a trapezoid between two endpoints.
+     */
+    static double interpolate(
+            double lhsCentroid, long lhsCount, double lhsTotal,
+            double rhsCentroid, long rhsCount, double rhsTotal,
+            double needle) {
+        double z = interpolateFraction(lhsCount, lhsTotal, rhsCount, rhsTotal, needle);
+        return lhsCentroid + (rhsCentroid - lhsCentroid) * z;
+    }
+
+    /**
+     * Approximate how far between two endpoints the cumulative count reaches
+     * the needle, as a fraction from 0 to 1.
+     */
+    static double interpolateFraction(
+            long lhsCount, double lhsTotal,
+            long rhsCount, double rhsTotal,
+            double needle) {
+        double a = rhsCount - lhsCount;
+        if (a == 0) {
+            double b = rhsTotal - lhsTotal;
+            if (b == 0) {
+                // don't interpolate
+                return 0;
+            } else {
+                // interpolate between centroids using boring math
+                return (needle - lhsTotal) / b;
+            }
+        } else {
+            // interpolate between centroids using fancy math
+            double b = 2 * lhsCount;
+            double c = 2 * (lhsTotal - needle);
+            return (-b + Math.sqrt(b * b - 4 * a * c)) / (2 * a);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.mergeconflict.histogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A fixed number of {@link OffHeapHistogram}s with the same maximum number
+ * of bins, laid out in a memory-mapped file. Updates go straight to the page
+ * cache, so the histograms survive a restart of the process without being
+ * serialized, and reopening a store only maps the file, however large it
+ * is.</p>
+ *
+ * <p>Each histogram is preceded by a CRC32 checksum of its bytes, which is
+ * brought up to date by {@link #checkpoint()} and {@link #close()}. The file
+ * header records whether the store was closed cleanly; if it wasn't, then
+ * {@link #recover()} should be called to find and reset any histogram left
+ * inconsistent by the crash. A histogram updated since the last checkpoint
+ * fails its checksum but is kept, as long as its bins are consistent with its
+ * header.</p>
+ *
+ * <p>The file consists of a 64-byte header, followed by the histograms, each
+ * preceded by an 8-byte checksum field. All values are little-endian:</p>
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number
+ *      4     4  format version, currently 1
+ *      8     4  maximum number of bins in each histogram
+ *     12     4  number of histograms
+ *     16     4  1 if the store was closed cleanly, 0 otherwise
+ * </pre>
+ *
+ * <p>The file is mapped in chunks of at most 1 GB, none of which splits a
+ * histogram. A store is not thread-safe.</p>
+ */
+public final class HistogramStore implements Closeable {
+    private static final int MAGIC = 0x48495354; // "HIST"
+    private static final int FORMAT_VERSION = 1;
+    private static final int
+            HEADER_MAGIC = 0,
+            HEADER_VERSION = 4,
+            HEADER_MAX_BINS = 8,
+            HEADER_SIZE = 12,
+            HEADER_CLEAN = 16,
+            HEADER_BYTES = 64;
+    private static final int CHECKSUM_BYTES = 8;
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] chunks;
+    private final int maxBins, size, entryBytes, entriesPerChunk;
+    private final boolean wasClean;
+    private final CRC32 crc = new CRC32();
+
+    private HistogramStore(FileChannel channel, int size, int maxBins) throws IOException {
+        this.channel = channel;
+        this.size = size;
+        this.maxBins = maxBins;
+        this.entryBytes = CHECKSUM_BYTES + OffHeapHistogram.sizeOf(maxBins);
+        if (maxBins < 1 || entryBytes > CHUNK_BYTES) {
+            throw new IllegalArgumentException("invalid maximum number of bins: " + maxBins);
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("invalid number of histograms: " + size);
+        }
+        this.entriesPerChunk = CHUNK_BYTES / entryBytes;
+
+        boolean create = channel.size() == 0;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (create) {
+            header.putInt(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_VERSION, FORMAT_VERSION);
+            header.putInt(HEADER_MAX_BINS, maxBins);
+            header.putInt(HEADER_SIZE, size);
+        } else {
+            int magic = header.getInt(HEADER_MAGIC), version = header.getInt(HEADER_VERSION);
+            if (magic != MAGIC || version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("not a histogram store of a supported version: " + version);
+            }
+            int storedBins = header.getInt(HEADER_MAX_BINS), storedSize = header.getInt(HEADER_SIZE);
+            if (storedBins != maxBins || storedSize != size) {
+                throw new IllegalArgumentException(
+                        "store of " + storedSize + " histograms of " + storedBins + " bins cannot be opened as " +
+                        size + " histograms of " + maxBins + " bins");
+            }
+        }
+
+        // map each chunk, which doesn't read anything from the file ...
+        this.chunks = new MappedByteBuffer[(size + entriesPerChunk - 1) / entriesPerChunk];
+        for (int c = 0; c < chunks.length; ++c) {
+            int entries = Math.min(entriesPerChunk, size - c * entriesPerChunk);
+            long position = HEADER_BYTES + (long) c * entriesPerChunk * entryBytes;
+            chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) entries * entryBytes);
+            chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // ... and then format a new store, or mark an existing one as in use
+        // until it's closed again.
+        if (create) {
+            for (int i = 0; i < size; ++i) {
+                new OffHeapHistogram(chunk(i), offset(i) + CHECKSUM_BYTES, maxBins);
+            }
+            this.wasClean = true;
+            checkpoint();
+        } else {
+            this.wasClean = header.getInt(HEADER_CLEAN) == 1;
+        }
+        header.putInt(HEADER_CLEAN, 0);
+        header.force();
+    }
+
+    /**
+     * Open a store, creating it if the file doesn't exist or is empty.
+     * @param file the file in which to store the histograms
+     * @param size the number of histograms in the store
+     * @param maxBins maximum number of bins in each histogram
+     * @return the opened store
+     * @throws IllegalArgumentException if the file exists, but isn't a store
+     * of the given size and maximum number of bins
+     */
+    public static HistogramStore open(Path file, int size, int maxBins) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new HistogramStore(channel, size, maxBins);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of histograms in this store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of bins in each histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return whether the store was closed cleanly before it was opened, or
+     * was newly created. If not, {@link #recover()} should be called.
+     */
+    public boolean wasClean() {
+        return wasClean;
+    }
+
+    /**
+     * Get a histogram in this store. The returned object holds nothing but the
+     * location of the histogram, so it may be discarded after use.
+     * @param index the index of the histogram, from 0 to {@code size() - 1}
+     * @return the histogram
+     */
+    public OffHeapHistogram get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("histogram " + index + " of " + size);
+        }
+        return OffHeapHistogram.wrap(chunk(index), offset(index) + CHECKSUM_BYTES);
+    }
+
+    /**
+     * Bring the checksum of every histogram up to date, and flush the store to
+     * the file.
+     */
+    public void checkpoint() throws IOException {
+        for (int i = 0; i < size; ++i) {
+            chunk(i).putInt(offset(i), checksum(i));
+        }
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Verify a histogram after a crash. A histogram is valid if it matches its
+     * checksum, or if it was updated since the last checkpoint but its bins
+     * are still consistent with its header.
+     * @param index the index of the histogram, from 0 to {@code size() - 1}
+     * @return whether the histogram is valid
+     */
+    public boolean verify(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("histogram " + index + " of " + size);
+        }
+        if (chunk(index).getInt(offset(index)) == checksum(index)) return true;
+        try {
+            return get(index).isConsistent();
+        } catch (RuntimeException e) {
+            // the header itself is corrupt.
+            return false;
+        }
+    }
+
+    /**
+     * Verify every histogram after a crash, resetting any which are invalid,
+     * and then checkpoint the store.
+     * @return the number of histograms which were reset
+     */
+    public int recover() throws IOException {
+        int reset = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!verify(i)) {
+                new OffHeapHistogram(chunk(i), offset(i) + CHECKSUM_BYTES, maxBins);
+                reset++;
+            }
+        }
+        checkpoint();
+        return reset;
+    }
+
+    /**
+     * Checkpoint the store and mark it as closed cleanly. Since mapped buffers
+     * can't be unmapped portably, the file remains mapped until the store is
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        header.putInt(HEADER_CLEAN, 1);
+        header.force();
+        channel.close();
+    }
+
+    private ByteBuffer chunk(int index) {
+        return chunks[index / entriesPerChunk];
+    }
+
+    private int offset(int index) {
+        return (index % entriesPerChunk) * entryBytes;
+    }
+
+    private int checksum(int index) {
+        ByteBuffer entry = chunk(index).duplicate();
+        int offset = offset(index) + CHECKSUM_BYTES;
+        entry.limit(offset + OffHeapHistogram.sizeOf(maxBins)).position(offset);
+        crc.reset();
+        crc.update(entry);
+        return (int) crc.getValue();
+    }
+}
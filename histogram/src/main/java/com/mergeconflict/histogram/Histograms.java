@@ -0,0 +1,64 @@
+package com.mergeconflict.histogram;
+
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
+
+/**
+ * Utilities for building histograms from streams. Each thread of a parallel
+ * stream accumulates its own histogram, and the histograms are combined with
+ * {@link Histogram#merge(Histogram)}, so parallel streams scale across the
+ * common fork/join pool.
+ */
+public final class Histograms {
+    private Histograms() {}
+
+    /**
+     * @param maxBins maximum number of bins in the histogram
+     * @return a collector which accumulates boxed observations into a
+     * histogram
+     */
+    public static Collector<Double, ?, Histogram> collector(int maxBins) {
+        return Collector.of(
+                supplier(maxBins),
+                Histogram::update,
+                (lhs, rhs) -> {
+                    lhs.merge(rhs);
+                    return lhs;
+                },
+                Histograms::unbuffered,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Accumulate a stream of observations into a histogram, without boxing.
+     * @param observations the stream of observations, which may be parallel
+     * @param maxBins maximum number of bins in the histogram
+     * @return a histogram of the observations
+     */
+    public static Histogram collect(DoubleStream observations, int maxBins) {
+        return unbuffered(observations.collect(supplier(maxBins), Histogram::update, Histogram::merge));
+    }
+
+    /**
+     * @return a supplier of empty histograms, which buffer their observations
+     * if they're large enough for that to pay off
+     */
+    private static Supplier<Histogram> supplier(int maxBins) {
+        int bufferSize = maxBins < Histogram.INDEX_THRESHOLD ? 0 : 4 * maxBins;
+        return () -> new Histogram(maxBins, bufferSize);
+    }
+
+    /**
+     * @return a histogram equal to the given one, without the buffer and its
+     * working space, which are only worth keeping while accumulating
+     */
+    private static Histogram unbuffered(Histogram histogram) {
+        if (!histogram.isBuffered()) {
+            return histogram;
+        }
+        Histogram result = new Histogram(histogram.maxBins());
+        result.copyFrom(histogram);
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+package com.mergeconflict.histogram;
+
+import java.util.Arrays;
+
+/**
+ * <p>A histogram which counts each distinct value exactly while there are no
+ * more than {@code maxBins} of them, and then converts itself to an
+ * approximate {@link Histogram}. Many inputs, such as status codes, retry
+ * counts or queue depths, take only a few distinct values; for these, updates
+ * take constant time in an open-addressing hash table, rather than walking
+ * the gap to the matching bin, and quantiles are exact.</p>
+ *
+ * <p>While exact, the value at quantile {@code q} is the smallest value whose
+ * cumulative count reaches {@code q * count} (the "nearest rank" method), and
+ * the cumulative distribution function counts exactly the observations at or
+ * below a value. After conversion, queries interpolate between bins as usual.
+ * Zero and negative zero are counted as the same value, as they are by
+ * {@link Histogram}.</p>
+ */
+public final class HybridHistogram {
+    // a NaN which Double#doubleToLongBits never returns, marking empty slots.
+    private static final long EMPTY = 0x7ff8000000000001L;
+
+    private final int maxBins;
+
+    // the exact counts, while there are few enough distinct values ...
+    private long[] keys;
+    private long[] values;
+    private int distinct = 0, shift;
+
+    // ... and the same values in order, with their cumulative counts, lazily
+    // computed for queries.
+    private double[] sorted;
+    private long[] cumulative;
+    private boolean sortedValid = false;
+
+    // the approximate histogram, once there are too many distinct values.
+    private Histogram histogram;
+
+    private long count = 0;
+    private double
+            min = Double.POSITIVE_INFINITY,
+            max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins, which is
+     * also the maximum number of distinct values counted exactly.
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public HybridHistogram(int maxBins) {
+        this.maxBins = maxBins;
+        // keep the table at most half full.
+        int capacity = Integer.highestOneBit(Math.max(2, maxBins) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return whether every distinct value is still counted exactly
+     */
+    public boolean isExact() {
+        return histogram == null;
+    }
+
+    /**
+     * @return the total number of observations summarized by this histogram
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the smallest observation, or positive infinity if empty
+     */
+    public double min() {
+        return min;
+    }
+
+    /**
+     * @return the largest observation, or negative infinity if empty
+     */
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Update this histogram with a new observation.
+     * @param observation the new data point to be counted
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be counted
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        if (histogram != null) {
+            histogram.update(observation, weight);
+            count += weight;
+            if (observation < min) min = observation;
+            if (observation > max) max = observation;
+            return;
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+
+        // look for the value's slot, or the empty slot where it belongs ...
+        long key = Double.doubleToLongBits(observation == 0 ? 0d : observation);
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+
+        // ... and either count it there, or convert to approximate bins if
+        // there's no room for another distinct value.
+        if (keys[slot] == EMPTY) {
+            if (distinct == maxBins) {
+                convert();
+                update(observation, weight);
+                return;
+            }
+            keys[slot] = key;
+            distinct++;
+        }
+        values[slot] += weight;
+        count += weight;
+        if (observation < min) min = observation;
+        if (observation > max) max = observation;
+        sortedValid = false;
+    }
+
+    /**
+     * Query for values at specified quantiles.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the values at the specified quantiles
+     */
+    public double[] query(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        for (int q = 0; q < quantiles.length; ++q) {
+            result[q] = quantile(quantiles[q]);
+        }
+        return result;
+    }
+
+    /**
+     * Query for the value at a single quantile, which is exact while every
+     * distinct value is counted exactly.
+     * @param quantile a quantile from 0 to 1
+     * @return the value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        if (histogram != null) return histogram.quantile(quantile);
+        if (quantile <= 0) return min;
+        if (quantile >= 1) return max;
+        if (count == 0) return Double.NaN;
+
+        // binary search for the first value whose cumulative count reaches the
+        // needle.
+        sort();
+        double needle = count * quantile;
+        int lo = 0, hi = distinct - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < needle) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return sorted[lo];
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value,
+     * which is exact while every distinct value is counted exactly.
+     * @param value the value to be ranked
+     * @return the cumulative distribution function at the value, or NaN if
+     * this histogram is empty
+     */
+    public double cdf(double value) {
+        if (histogram != null) return histogram.cdf(value);
+        if (count == 0) return Double.NaN;
+
+        // binary search for the last value at or below the given value.
+        sort();
+        int lo = -1, hi = distinct - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (sorted[mid] <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo < 0 ? 0 : (double) cumulative[lo] / count;
+    }
+
+    /**
+     * @return a new approximate histogram of the observations, which is exact
+     * while every distinct value is counted exactly, since each value then has
+     * its own bin
+     */
+    public Histogram toHistogram() {
+        Histogram result = new Histogram(maxBins);
+        if (histogram != null) {
+            result.copyFrom(histogram);
+            return result;
+        }
+        sort();
+        long previous = 0;
+        for (int i = 0; i < distinct; ++i) {
+            result.update(sorted[i], cumulative[i] - previous);
+            previous = cumulative[i];
+        }
+        return result;
+    }
+
+    /**
+     * Convert the exact counts to approximate bins, and discard the table.
+     */
+    private void convert() {
+        histogram = toHistogram();
+        keys = null;
+        values = null;
+        sorted = null;
+        cumulative = null;
+    }
+
+    /**
+     * Sort the distinct values and accumulate their counts, if necessary.
+     */
+    private void sort() {
+        if (sortedValid) return;
+        if (sorted == null) {
+            sorted = new double[maxBins];
+            cumulative = new long[maxBins];
+        }
+
+        // sort the values, and then look up each one's count in turn.
+        for (int slot = 0, i = 0; slot < keys.length; ++slot) {
+            if (keys[slot] != EMPTY) sorted[i++] = Double.longBitsToDouble(keys[slot]);
+        }
+        Arrays.sort(sorted, 0, distinct);
+        long total = 0;
+        for (int i = 0; i < distinct; ++i) {
+            long key = Double.doubleToLongBits(sorted[i]);
+            int slot = slot(key);
+            while (keys[slot] != key) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            total += values[slot];
+            cumulative[i] = total;
+        }
+        sortedValid = true;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> shift);
+    }
+}
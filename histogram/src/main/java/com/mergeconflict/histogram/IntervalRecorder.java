@@ -0,0 +1,134 @@
+package com.mergeconflict.histogram;
+
+/**
+ * <p>A recorder which summarizes observations over successive intervals of
+ * time, by double buffering a pair of {@link Histogram}s. Updates go to the
+ * active histogram without locking; {@link #getIntervalHistogram()} swaps in
+ * the inactive histogram and returns the previously active one, once any
+ * update in progress has finished. The swap is coordinated with a
+ * {@link WriterReaderPhaser}, so that writers never block.</p>
+ *
+ * <p>Since {@link Histogram} isn't thread-safe, a recorder supports only a
+ * single writer thread at a time (although any number of threads may call
+ * {@link #getIntervalHistogram()}). Concurrent writers should each use their
+ * own recorder, or a {@link StripedRecorder}.</p>
+ *
+ * <p>To avoid allocating a new histogram for each interval, either pass the
+ * previous interval histogram back to be recycled, or use
+ * {@link #getIntervalHistogramInto(Histogram)}.</p>
+ */
+public final class IntervalRecorder {
+    private final int maxBins;
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile Histogram active;
+    private Histogram inactive;
+
+    /**
+     * Construct a recorder with a maximum number of bins per interval.
+     * @param maxBins maximum number of bins in each interval histogram
+     */
+    public IntervalRecorder(int maxBins) {
+        this.maxBins = maxBins;
+        this.active = new Histogram(maxBins);
+        this.inactive = new Histogram(maxBins);
+    }
+
+    /**
+     * Update the current interval with a new observation.
+     * @param observation the new data point to be approximated
+     */
+    public void update(double observation) {
+        long enterValue = phaser.writerCriticalSectionEnter();
+        try {
+            active.update(observation);
+        } finally {
+            phaser.writerCriticalSectionExit(enterValue);
+        }
+    }
+
+    /**
+     * Update the current interval with a new observation which occurred some
+     * number of times.
+     * @param observation the new data point to be approximated
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        long enterValue = phaser.writerCriticalSectionEnter();
+        try {
+            active.update(observation, weight);
+        } finally {
+            phaser.writerCriticalSectionExit(enterValue);
+        }
+    }
+
+    /**
+     * End the current interval, and start a new one.
+     * @return a histogram of the observations recorded since the previous
+     * interval ended
+     */
+    public Histogram getIntervalHistogram() {
+        return getIntervalHistogram(null);
+    }
+
+    /**
+     * End the current interval, and start a new one, reusing a histogram
+     * returned by a previous call for the new interval.
+     * @param recycle a previously returned interval histogram, which must no
+     * longer be used by the caller, or null
+     * @return a histogram of the observations recorded since the previous
+     * interval ended
+     */
+    public Histogram getIntervalHistogram(Histogram recycle) {
+        if (recycle != null && recycle.maxBins() != maxBins) {
+            throw new IllegalArgumentException(
+                    "cannot recycle a histogram of " + recycle.maxBins() + " bins into " + maxBins);
+        }
+        phaser.readerLock();
+        try {
+            Histogram next = recycle;
+            if (next == null) {
+                next = inactive != null ? inactive : new Histogram(maxBins);
+                inactive = null;
+            }
+            return swap(next);
+        } finally {
+            phaser.readerUnlock();
+        }
+    }
+
+    /**
+     * End the current interval, start a new one, and copy the observations
+     * recorded since the previous interval ended into the given histogram. This
+     * never allocates, since both buffers are kept by the recorder.
+     * @param target a histogram with the same maximum number of bins as this
+     * recorder, whose contents will be replaced
+     */
+    public void getIntervalHistogramInto(Histogram target) {
+        if (target.maxBins() != maxBins) {
+            throw new IllegalArgumentException(
+                    "cannot copy an interval of " + maxBins + " bins into " + target.maxBins());
+        }
+        phaser.readerLock();
+        try {
+            Histogram next = inactive != null ? inactive : new Histogram(maxBins);
+            Histogram finished = swap(next);
+            target.copyFrom(finished);
+            inactive = finished;
+        } finally {
+            phaser.readerUnlock();
+        }
+    }
+
+    /**
+     * Make a reset histogram active, and wait for writers to finish with the
+     * previously active one. The reader lock must be held.
+     * @return the previously active histogram
+     */
+    private Histogram swap(Histogram next) {
+        next.reset();
+        Histogram finished = active;
+        active = next;
+        phaser.flipPhase();
+        return finished;
+    }
+}
@@ -0,0 +1,442 @@
+package com.mergeconflict.histogram;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A sibling of {@link Histogram} for integer observations, such as
+ * latencies in nanoseconds. The centroids are kept as {@code long}s, so that
+ * observations and the min and max are exact over the whole range of
+ * {@code long}, rather than only up to {@code 2^53}, and no conversion to and
+ * from {@code double} is needed. The bins are kept in the same order, with the
+ * same insertion gap, as in {@link Histogram}.</p>
+ *
+ * <p>When two bins are merged, the new centroid is their weighted mean,
+ * rounded to the nearest integer. The serialized form encodes each centroid as
+ * a varint difference from the previous one, which is usually much smaller
+ * than the eight bytes of a {@code double}.</p>
+ */
+public final class LongHistogram {
+    /**
+     * The version of the format written by {@link #writeTo(ByteBuffer)}.
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    private final int maxBins;
+    private final long[] centroids;
+    private final long[] counts;
+    private int bins = 0, gap = 0;
+
+    // the delta index, if any, and the range of slots which have been modified
+    // since it was last refreshed.
+    private final DeltaIndex index;
+    private int dirtyFrom, dirtyTo;
+
+    // the cumulative counts at each bin, lazily computed for queries and
+    // invalidated by updates.
+    private double[] totals;
+    private boolean totalsValid = false;
+
+    private long count = 0;
+    private long
+            min = Long.MAX_VALUE,
+            max = Long.MIN_VALUE;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins.
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public LongHistogram(int maxBins) {
+        this.maxBins = maxBins;
+        this.centroids = new long[maxBins + 1];
+        this.counts = new long[maxBins + 1];
+        this.index = maxBins < Histogram.INDEX_THRESHOLD ? null : new DeltaIndex(maxBins);
+        this.dirtyFrom = 0;
+        this.dirtyTo = maxBins;
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return the total number of observations summarized by this histogram
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the smallest observation, or {@link Long#MAX_VALUE} if empty
+     */
+    public long min() {
+        return min;
+    }
+
+    /**
+     * @return the largest observation, or {@link Long#MIN_VALUE} if empty
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Remove all observations from this histogram, so that it can be reused
+     * without allocating a new one.
+     */
+    public void reset() {
+        bins = 0;
+        gap = 0;
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        dirtyFrom = 0;
+        dirtyTo = maxBins;
+        totalsValid = false;
+    }
+
+    /**
+     * Update this histogram with a new observation.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(long observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(long observation, long weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        count += weight;
+        totalsValid = false;
+        if (observation < min) min = observation;
+        if (observation > max) max = observation;
+
+        // the gap is moved exactly as in Histogram#update, so see there for
+        // the details ...
+        int from = gap;
+        if (gap != bins && observation > centroids[bins]) {
+            System.arraycopy(centroids, gap + 1, centroids, gap, bins - gap);
+            System.arraycopy(counts, gap + 1, counts, gap, bins - gap);
+            gap = bins;
+        } else if (gap != 0 && observation < centroids[0]) {
+            System.arraycopy(centroids, 0, centroids, 1, gap);
+            System.arraycopy(counts, 0, counts, 1, gap);
+            gap = 0;
+        }
+
+        while (true) {
+            if (gap != 0) {
+                if (centroids[gap - 1] > observation) {
+                    centroids[gap] = centroids[gap - 1];
+                    counts[gap] = counts[gap - 1];
+                    gap--;
+                    continue;
+                } else if (centroids[gap - 1] == observation) {
+                    counts[gap - 1] += weight;
+                    touch(from, gap);
+                    return;
+                }
+            }
+            if (gap != bins) {
+                if (centroids[gap + 1] < observation) {
+                    centroids[gap] = centroids[gap + 1];
+                    counts[gap] = counts[gap + 1];
+                    gap++;
+                    continue;
+                } else if (centroids[gap + 1] == observation) {
+                    counts[gap + 1] += weight;
+                    touch(from, gap);
+                    return;
+                }
+            }
+            break;
+        }
+
+        touch(from, gap);
+        centroids[gap] = observation;
+        counts[gap] = weight;
+        if (bins != maxBins) {
+            bins += 1;
+            gap = bins;
+            return;
+        }
+
+        // ... and so is the closest pair of bins.
+        boolean ascending = gap == bins;
+        int pair = 0;
+        if (index != null) {
+            index.refresh(centroids, dirtyFrom - 1, dirtyTo);
+            pair = index.min();
+        } else {
+            double minDelta = Double.POSITIVE_INFINITY;
+            for (int bin = 0; bin < bins; ++bin) {
+                double delta = delta(centroids[bin], centroids[bin + 1]);
+                if (delta < minDelta) {
+                    pair = bin;
+                    minDelta = delta;
+                }
+            }
+        }
+        long centroid = mean(centroids[pair], counts[pair], centroids[pair + 1], counts[pair + 1]);
+        long total = counts[pair] + counts[pair + 1];
+        if (ascending) {
+            centroids[pair] = centroid;
+            counts[pair] = total;
+            gap = pair + 1;
+        } else {
+            centroids[pair + 1] = centroid;
+            counts[pair + 1] = total;
+            gap = pair;
+        }
+        dirtyFrom = pair;
+        dirtyTo = pair + 1;
+    }
+
+    /**
+     * Widen the range of slots modified since the delta index, if any, was last
+     * refreshed.
+     */
+    private void touch(int from, int to) {
+        if (from > to) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from < dirtyFrom) dirtyFrom = from;
+        if (to > dirtyTo) dirtyTo = to;
+    }
+
+    /**
+     * Query for approximate values at specified quantiles.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     * @throws IllegalStateException if this histogram is empty
+     */
+    public long[] query(double... quantiles) {
+        long[] result = new long[quantiles.length];
+        for (int q = 0; q < quantiles.length; ++q) {
+            result[q] = quantile(quantiles[q]);
+        }
+        return result;
+    }
+
+    /**
+     * Query for the approximate value at a single quantile, rounded to the
+     * nearest integer.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     * @throws IllegalStateException if this histogram is empty
+     */
+    public long quantile(double quantile) {
+        if (count == 0) throw new IllegalStateException("histogram is empty");
+        if (quantile <= 0) return min;
+        if (quantile >= 1) return max;
+        double needle = count * quantile;
+
+        // binary search for the first endpoint whose cumulative count reaches
+        // the needle, as in Histogram#quantile ...
+        double[] totals = totals();
+        int lo = 1, hi = bins + 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (totals[mid] < needle) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        // ... and interpolate between integers without losing precision.
+        int lhs = lo - 1, rhs = lo;
+        double z = Histogram.interpolateFraction(
+                count(lhs), totals[lhs], count(rhs), totals[rhs], needle);
+        long lhsCentroid = centroid(lhs);
+        return plus(lhsCentroid, delta(lhsCentroid, centroid(rhs)) * z);
+    }
+
+    /**
+     * Estimate the number of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate number of observations at or below the value
+     */
+    public double rank(long value) {
+        if (count == 0 || value < min) return 0;
+        if (value >= max) return count;
+
+        // binary search for the last endpoint at or below the value ...
+        int lo = 0, hi = bins;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (centroid(mid) <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // ... and take the area of its trapezoid up to the value.
+        int rhs = lo + 1;
+        long lhsCount = count(lo), rhsCount = count(rhs);
+        double z = delta(centroid(lo), value) / delta(centroid(lo), centroid(rhs));
+        double valueCount = lhsCount + (rhsCount - lhsCount) * z;
+        return totals()[lo] + 0.5d * (lhsCount + valueCount) * z;
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(long value) {
+        return count == 0 ? Double.NaN : rank(value) / count;
+    }
+
+    /**
+     * @return an upper bound on the number of bytes written by
+     * {@link #writeTo(ByteBuffer)}
+     */
+    public int maxSerializedSize() {
+        return 1 + 5 * Varint.MAX_LONG_BYTES + bins * 2 * Varint.MAX_LONG_BYTES;
+    }
+
+    /**
+     * Write this histogram to a buffer in a compact binary format, which can be
+     * read back with {@link #readFrom(ByteBuffer)}. The format consists of a
+     * version byte, then the maximum number of bins, the number of bins and
+     * the count as varints, then the min and max as zigzag varints, and then
+     * each bin in order. Each centroid is written as its unsigned varint
+     * difference from the previous centroid, or from the min for the first,
+     * followed by its count as a varint.
+     * @param buffer the buffer to write to, which must have at least
+     * {@link #maxSerializedSize()} bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(FORMAT_VERSION);
+        Varint.putUnsigned(buffer, maxBins);
+        Varint.putUnsigned(buffer, bins);
+        Varint.putUnsigned(buffer, count);
+        Varint.putSigned(buffer, min);
+        Varint.putSigned(buffer, max);
+
+        long previous = min;
+        for (int bin = 0; bin < bins; ++bin) {
+            int slot = bin < gap ? bin : bin + 1;
+            Varint.putUnsigned(buffer, centroids[slot] - previous);
+            Varint.putUnsigned(buffer, counts[slot]);
+            previous = centroids[slot];
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo(ByteBuffer)}.
+     * @param buffer the buffer to read from
+     * @return the histogram
+     * @throws IllegalArgumentException if the buffer doesn't contain a
+     * histogram in a supported format, or its maximum number of bins exceeds
+     * {@code 2^20}
+     */
+    public static LongHistogram readFrom(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unsupported histogram format version: " + version);
+        }
+        long maxBins = Varint.getUnsigned(buffer), bins = Varint.getUnsigned(buffer);
+        Histogram.checkBins(maxBins, bins, buffer);
+
+        LongHistogram histogram = new LongHistogram((int) maxBins);
+        long count = Varint.getUnsigned(buffer), total = 0;
+        histogram.count = count;
+        histogram.min = Varint.getSigned(buffer);
+        histogram.max = Varint.getSigned(buffer);
+        long previous = histogram.min;
+        for (int bin = 0; bin < bins; ++bin) {
+            previous += Varint.getUnsigned(buffer);
+            histogram.centroids[bin] = previous;
+            histogram.counts[bin] = Histogram.checkCount(Varint.getUnsigned(buffer), count - total);
+            total += histogram.counts[bin];
+        }
+        if (total != count) {
+            throw new IllegalArgumentException("bins add up to " + total + ", not " + count);
+        }
+        histogram.bins = (int) bins;
+        histogram.gap = (int) bins;
+        return histogram;
+    }
+
+    /**
+     * @return the cumulative count at each endpoint, computing it if necessary
+     */
+    private double[] totals() {
+        if (totalsValid) return totals;
+        if (totals == null) totals = new double[maxBins + 2];
+        double total = 0;
+        long lhsCount = 0;
+        for (int endpoint = 1; endpoint <= bins + 1; ++endpoint) {
+            long rhsCount = count(endpoint);
+            total += 0.5d * (lhsCount + rhsCount);
+            totals[endpoint] = total;
+            lhsCount = rhsCount;
+        }
+        totalsValid = true;
+        return totals;
+    }
+
+    /**
+     * @return the centroid of an endpoint, as in Histogram#centroid
+     */
+    private long centroid(int endpoint) {
+        if (endpoint == 0) return min;
+        if (endpoint > bins) return max;
+        return centroids[endpoint <= gap ? endpoint - 1 : endpoint];
+    }
+
+    /**
+     * @return the count of an endpoint, as in Histogram#count
+     */
+    private long count(int endpoint) {
+        if (endpoint == 0 || endpoint > bins) return 0;
+        return counts[endpoint <= gap ? endpoint - 1 : endpoint];
+    }
+
+    /**
+     * @return the distance from {@code lhs} up to {@code rhs}, which may exceed
+     * {@link Long#MAX_VALUE}
+     */
+    static double delta(long lhs, long rhs) {
+        long delta = rhs - lhs;
+        return delta >= 0 ? delta : delta + 0x1p64;
+    }
+
+    /**
+     * @return the weighted mean of two centroids, rounded to the nearest
+     * integer. This is exact unless the product of their distance and a count
+     * would overflow, in which case it is computed in floating point.
+     */
+    static long mean(long lhs, long lhsCount, long rhs, long rhsCount) {
+        long distance = rhs - lhs, total = lhsCount + rhsCount;
+        if (distance >= 0 && distance <= (Long.MAX_VALUE - total) / rhsCount) {
+            return lhs + (distance * rhsCount + total / 2) / total;
+        }
+        return plus(lhs, delta(lhs, rhs) * ((double) rhsCount / total));
+    }
+
+    /**
+     * @return {@code value} plus a non-negative offset, rounded to the nearest
+     * integer, where the offset may exceed {@link Long#MAX_VALUE}
+     */
+    private static long plus(long value, double offset) {
+        if (offset < 0x1p63) return value + Math.round(offset);
+        return value + Long.MIN_VALUE + Math.round(offset - 0x1p63);
+    }
+}
@@ -0,0 +1,470 @@
+package com.mergeconflict.histogram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>A {@link Histogram} whose header and bins live in a caller-supplied
+ * buffer, typically a slice of a large direct buffer shared by many
+ * histograms, so that they are invisible to the garbage collector. Updates and
+ * queries follow exactly the same algorithm as {@link Histogram}, and give
+ * the same results for the same observations. Since no state is kept on the
+ * heap, the closest pair of bins is always found by a linear scan, and the
+ * cumulative counts are recomputed by each query.</p>
+ *
+ * <p>Instances of this class hold nothing but the location of the histogram,
+ * so they can be created on demand with {@link #wrap(ByteBuffer, int)} and
+ * thrown away. The layout is stable, so the same bytes can be persisted and
+ * wrapped again later. All values are little-endian:</p>
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  maximum number of bins
+ *      4     4  number of bins in use
+ *      8     4  slot of the insertion gap
+ *     12     4  layout version, currently 1
+ *     16     8  count
+ *     24     8  min
+ *     32     8  max
+ *     40    16  slot 0: centroid (8), count (8)
+ *    ...
+ * </pre>
+ *
+ * <p>There are {@code maxBins + 1} slots, as in {@link Histogram}: the bins
+ * in order of their centroids, with the insertion gap somewhere among
+ * them.</p>
+ */
+public final class OffHeapHistogram {
+    private static final int
+            MAX_BINS = 0,
+            BINS = 4,
+            GAP = 8,
+            VERSION = 12,
+            COUNT = 16,
+            MIN = 24,
+            MAX = 32,
+            HEADER_BYTES = 40,
+            SLOT_BYTES = 16;
+
+    /**
+     * The version of the layout written by this class.
+     */
+    private static final int LAYOUT_VERSION = 1;
+
+    private final ByteBuffer slab;
+    private final int base;
+    private final int maxBins;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins, at the given
+     * offset in a buffer. Any existing contents at that location are
+     * overwritten.
+     * @param slab the buffer in which to store the histogram
+     * @param offset the offset of the histogram in the buffer
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public OffHeapHistogram(ByteBuffer slab, int offset, int maxBins) {
+        this(slab, offset, maxBins, true);
+    }
+
+    private OffHeapHistogram(ByteBuffer slab, int offset, int maxBins, boolean format) {
+        if (maxBins < 1) {
+            throw new IllegalArgumentException("invalid maximum number of bins: " + maxBins);
+        }
+        if (offset < 0 || offset > slab.capacity() - sizeOf(maxBins)) {
+            throw new IndexOutOfBoundsException(
+                    "histogram of " + sizeOf(maxBins) + " bytes at offset " + offset +
+                    " exceeds buffer of " + slab.capacity() + " bytes");
+        }
+        this.slab = slab.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.base = offset;
+        this.maxBins = maxBins;
+        if (format) {
+            this.slab.putInt(base + MAX_BINS, maxBins);
+            this.slab.putInt(base + VERSION, LAYOUT_VERSION);
+            reset();
+        }
+    }
+
+    /**
+     * Attach to a histogram previously constructed at the given offset in a
+     * buffer, or persisted from one.
+     * @param slab the buffer in which the histogram is stored
+     * @param offset the offset of the histogram in the buffer
+     * @return a histogram backed by the buffer
+     * @throws IllegalArgumentException if the buffer doesn't contain a
+     * histogram in a supported layout at that offset
+     */
+    public static OffHeapHistogram wrap(ByteBuffer slab, int offset) {
+        if (offset < 0 || offset > slab.capacity() - HEADER_BYTES) {
+            throw new IndexOutOfBoundsException(
+                    "histogram header at offset " + offset + " exceeds buffer of " + slab.capacity() + " bytes");
+        }
+        ByteBuffer le = slab.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int version = le.getInt(offset + VERSION);
+        if (version != LAYOUT_VERSION) {
+            throw new IllegalArgumentException("unsupported histogram layout version: " + version);
+        }
+        // the maximum number of bins may be corrupt, so check it before the
+        // size of the histogram is computed from it.
+        int maxBins = le.getInt(offset + MAX_BINS);
+        if (maxBins < 1 || HEADER_BYTES + SLOT_BYTES * (maxBins + 1L) > slab.capacity() - offset) {
+            throw new IllegalArgumentException(
+                    "invalid histogram of " + maxBins + " bins at offset " + offset +
+                    " in buffer of " + slab.capacity() + " bytes");
+        }
+        OffHeapHistogram histogram = new OffHeapHistogram(slab, offset, maxBins, false);
+        int bins = histogram.bins(), gap = histogram.gap();
+        if (bins < 0 || bins > histogram.maxBins || gap < 0 || gap > bins) {
+            throw new IllegalArgumentException(
+                    "invalid histogram of " + bins + " / " + histogram.maxBins + " bins with gap at " + gap);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param maxBins maximum number of bins in a histogram
+     * @return the number of bytes occupied by such a histogram in a buffer
+     * @throws IllegalArgumentException if such a histogram wouldn't fit in any
+     * buffer
+     */
+    public static int sizeOf(int maxBins) {
+        long size = HEADER_BYTES + SLOT_BYTES * (maxBins + 1L);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid maximum number of bins: " + maxBins);
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * @return the total number of observations in this histogram
+     */
+    public long count() {
+        return slab.getLong(base + COUNT);
+    }
+
+    /**
+     * @return the smallest observation in this histogram
+     */
+    public double min() {
+        return slab.getDouble(base + MIN);
+    }
+
+    /**
+     * @return the largest observation in this histogram
+     */
+    public double max() {
+        return slab.getDouble(base + MAX);
+    }
+
+    /**
+     * Remove all observations from this histogram.
+     */
+    public void reset() {
+        setBins(0);
+        setGap(0);
+        slab.putLong(base + COUNT, 0);
+        slab.putDouble(base + MIN, Double.POSITIVE_INFINITY);
+        slab.putDouble(base + MAX, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Update this histogram with a new observation.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        slab.putLong(base + COUNT, count() + weight);
+        if (observation < min()) slab.putDouble(base + MIN, observation);
+        if (observation > max()) slab.putDouble(base + MAX, observation);
+
+        // the gap is moved exactly as in Histogram#update, so see there for
+        // the details ...
+        int bins = bins(), gap = gap();
+        if (gap != bins && observation > centroid(bins)) {
+            move(gap + 1, gap, bins - gap);
+            gap = bins;
+        } else if (gap != 0 && observation < centroid(0)) {
+            move(0, 1, gap);
+            gap = 0;
+        }
+
+        while (true) {
+            if (gap != 0) {
+                double lhs = centroid(gap - 1);
+                if (lhs > observation) {
+                    copy(gap - 1, gap);
+                    gap--;
+                    continue;
+                } else if (lhs == observation) {
+                    setCount(gap - 1, count(gap - 1) + weight);
+                    setGap(gap);
+                    return;
+                }
+            }
+            if (gap != bins) {
+                double rhs = centroid(gap + 1);
+                if (rhs < observation) {
+                    copy(gap + 1, gap);
+                    gap++;
+                    continue;
+                } else if (rhs == observation) {
+                    setCount(gap + 1, count(gap + 1) + weight);
+                    setGap(gap);
+                    return;
+                }
+            }
+            break;
+        }
+
+        setCentroid(gap, observation);
+        setCount(gap, weight);
+        if (bins != maxBins) {
+            setBins(bins + 1);
+            setGap(bins + 1);
+            return;
+        }
+
+        // merge the leftmost closest pair of bins ...
+        boolean ascending = gap == bins;
+        int pair = 0;
+        double minDelta = Double.POSITIVE_INFINITY;
+        double lhs = centroid(0);
+        for (int slot = 0; slot < bins; ++slot) {
+            double rhs = centroid(slot + 1);
+            double delta = rhs - lhs;
+            if (delta < minDelta) {
+                pair = slot;
+                minDelta = delta;
+            }
+            lhs = rhs;
+        }
+        double lhsCentroid = centroid(pair), rhsCentroid = centroid(pair + 1);
+        long lhsCount = count(pair), rhsCount = count(pair + 1);
+        double centroid = (lhsCentroid * lhsCount + rhsCentroid * rhsCount) / (lhsCount + rhsCount);
+        long total = lhsCount + rhsCount;
+        if (ascending) {
+            setCentroid(pair, centroid);
+            setCount(pair, total);
+            setGap(pair + 1);
+        } else {
+            setCentroid(pair + 1, centroid);
+            setCount(pair + 1, total);
+            setGap(pair);
+        }
+    }
+
+    /**
+     * Query for approximate values at specified quantiles.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        query(quantiles, result);
+        return result;
+    }
+
+    /**
+     * Query for approximate values at specified quantiles, without allocating.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @param result an array at least as long as {@code quantiles}, in which
+     * to store the approximate values at the specified quantiles
+     */
+    public void query(double[] quantiles, double[] result) {
+        if (result.length < quantiles.length) {
+            throw new IllegalArgumentException(
+                    "result array of length " + result.length + " is shorter than " + quantiles.length + " quantiles");
+        }
+        for (int q = 0; q < quantiles.length; ++q) {
+            result[q] = quantile(quantiles[q]);
+        }
+    }
+
+    /**
+     * Query for the approximate value at a single quantile, without allocating.
+     * This takes linear time, since the cumulative counts are not cached.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        if (quantile <= 0) return min();
+        if (quantile >= 1) return max();
+        long count = count();
+        if (count == 0) return Double.NaN;
+        double needle = count * quantile;
+
+        // accumulate the area of each trapezoid, as in Histogram#totals, until
+        // reaching the needle.
+        int bins = bins(), gap = gap();
+        double lhsTotal = 0, rhsTotal = 0;
+        long lhsCount = 0, rhsCount = 0;
+        int rhs = 1;
+        for (; rhs <= bins + 1; ++rhs) {
+            rhsCount = endpointCount(rhs, bins, gap);
+            rhsTotal = lhsTotal + 0.5d * (lhsCount + rhsCount);
+            if (rhsTotal >= needle || rhs == bins + 1) break;
+            lhsTotal = rhsTotal;
+            lhsCount = rhsCount;
+        }
+        return Histogram.interpolate(
+                endpointCentroid(rhs - 1, bins, gap), lhsCount, lhsTotal,
+                endpointCentroid(rhs, bins, gap), rhsCount, rhsTotal,
+                needle);
+    }
+
+    /**
+     * Estimate the number of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate number of observations at or below the value
+     */
+    public double rank(double value) {
+        long count = count();
+        if (count == 0 || value < min()) return 0;
+        if (value >= max()) return count;
+
+        // accumulate the area of each trapezoid up to the last endpoint at or
+        // below the value ...
+        int bins = bins(), gap = gap();
+        double total = 0;
+        long lhsCount = 0;
+        int lhs = 0;
+        while (lhs < bins && endpointCentroid(lhs + 1, bins, gap) <= value) {
+            long rhsCount = endpointCount(lhs + 1, bins, gap);
+            total += 0.5d * (lhsCount + rhsCount);
+            lhsCount = rhsCount;
+            lhs++;
+        }
+
+        // ... and then the part of the next trapezoid up to the value.
+        double lhsCentroid = endpointCentroid(lhs, bins, gap);
+        double rhsCentroid = endpointCentroid(lhs + 1, bins, gap);
+        long rhsCount = endpointCount(lhs + 1, bins, gap);
+        double z = (value - lhsCentroid) / (rhsCentroid - lhsCentroid);
+        double valueCount = lhsCount + (rhsCount - lhsCount) * z;
+        return total + 0.5d * (lhsCount + valueCount) * z;
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(double value) {
+        long count = count();
+        return count == 0 ? Double.NaN : rank(value) / count;
+    }
+
+    /**
+     * Check that the bins are consistent with each other and with the header,
+     * for example after a crash has left a histogram partially written.
+     * @return whether the bins are in order, positive, and sum to the count
+     */
+    boolean isConsistent() {
+        int bins = bins(), gap = gap();
+        if (bins < 0 || bins > maxBins || gap < 0 || gap > bins) return false;
+        long total = 0;
+        double previous = min();
+        for (int endpoint = 1; endpoint <= bins; ++endpoint) {
+            double centroid = endpointCentroid(endpoint, bins, gap);
+            long count = endpointCount(endpoint, bins, gap);
+            if (!(centroid >= previous) || count < 1) return false;
+            total += count;
+            previous = centroid;
+        }
+        return total == count() && (bins == 0 || previous <= max());
+    }
+
+    private int bins() {
+        return slab.getInt(base + BINS);
+    }
+
+    private void setBins(int bins) {
+        slab.putInt(base + BINS, bins);
+    }
+
+    private int gap() {
+        return slab.getInt(base + GAP);
+    }
+
+    private void setGap(int gap) {
+        slab.putInt(base + GAP, gap);
+    }
+
+    private int slot(int slot) {
+        return base + HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private double centroid(int slot) {
+        return slab.getDouble(slot(slot));
+    }
+
+    private void setCentroid(int slot, double centroid) {
+        slab.putDouble(slot(slot), centroid);
+    }
+
+    private long count(int slot) {
+        return slab.getLong(slot(slot) + 8);
+    }
+
+    private void setCount(int slot, long count) {
+        slab.putLong(slot(slot) + 8, count);
+    }
+
+    /**
+     * Copy a single slot.
+     */
+    private void copy(int from, int to) {
+        setCentroid(to, centroid(from));
+        setCount(to, count(from));
+    }
+
+    /**
+     * Copy a run of slots, which may overlap.
+     */
+    private void move(int from, int to, int length) {
+        if (from > to) {
+            for (int i = 0; i < length; ++i) copy(from + i, to + i);
+        } else {
+            for (int i = length - 1; i >= 0; --i) copy(from + i, to + i);
+        }
+    }
+
+    /**
+     * @return the centroid of an endpoint, as in Histogram#centroid
+     */
+    private double endpointCentroid(int endpoint, int bins, int gap) {
+        if (endpoint == 0) return min();
+        if (endpoint > bins) return max();
+        return centroid(endpoint <= gap ? endpoint - 1 : endpoint);
+    }
+
+    /**
+     * @return the count of an endpoint, as in Histogram#count
+     */
+    private long endpointCount(int endpoint, int bins, int gap) {
+        if (endpoint == 0 || endpoint > bins) return 0;
+        return count(endpoint <= gap ? endpoint - 1 : endpoint);
+    }
+}
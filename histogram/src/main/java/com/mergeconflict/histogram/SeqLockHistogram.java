@@ -0,0 +1,159 @@
+package com.mergeconflict.histogram;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <p>A histogram with a single writer thread and any number of reader threads,
+ * in which readers never block the writer. This works like a sequence lock:
+ * each update is made under the write lock of a {@link StampedLock}, which is
+ * never contended since there's only one writer, and readers copy the
+ * histogram into a thread-local snapshot under an optimistic read, retrying
+ * if an update happened in the meantime. Queries are then answered from the
+ * consistent snapshot.</p>
+ *
+ * <p>Each query copies the histogram, which takes time linear in the number
+ * of bins, so to ask several questions of the same state, take a
+ * {@link #snapshot()} instead. Readers may have to retry repeatedly if
+ * updates are very frequent, but the writer is never delayed by them.</p>
+ */
+public final class SeqLockHistogram {
+    private final int maxBins;
+    private final Histogram histogram;
+    private final StampedLock lock = new StampedLock();
+    private final ThreadLocal<Histogram> snapshots;
+
+    /**
+     * Construct an empty histogram with a maximum number of bins.
+     * @param maxBins maximum number of bins in the histogram
+     */
+    public SeqLockHistogram(int maxBins) {
+        this.maxBins = maxBins;
+        // the histogram must not be buffered, so that readers never flush it.
+        this.histogram = new Histogram(maxBins);
+        this.snapshots = ThreadLocal.withInitial(() -> new Histogram(maxBins));
+    }
+
+    /**
+     * @return the maximum number of bins in this histogram
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * Update this histogram with a new observation. This may only be called
+     * by the writer thread.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        long stamp = lock.writeLock();
+        try {
+            histogram.update(observation);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Update this histogram with a new observation which occurred some number
+     * of times. This may only be called by the writer thread.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        long stamp = lock.writeLock();
+        try {
+            histogram.update(observation, weight);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove all observations from this histogram. This may only be called by
+     * the writer thread.
+     */
+    public void reset() {
+        long stamp = lock.writeLock();
+        try {
+            histogram.reset();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the total number of observations summarized by this histogram
+     */
+    public long count() {
+        return read().count();
+    }
+
+    /**
+     * Query for approximate values at specified quantiles.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        return read().query(quantiles);
+    }
+
+    /**
+     * Query for approximate values at specified quantiles, without allocating.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @param result an array at least as long as {@code quantiles}, in which
+     * to store the approximate values at the specified quantiles
+     */
+    public void query(double[] quantiles, double[] result) {
+        read().query(quantiles, result);
+    }
+
+    /**
+     * Query for the approximate value at a single quantile.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        return read().quantile(quantile);
+    }
+
+    /**
+     * Estimate the fraction of observations less than or equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if this histogram is empty
+     */
+    public double cdf(double value) {
+        return read().cdf(value);
+    }
+
+    /**
+     * @return a new, consistent copy of this histogram, which belongs to the
+     * caller
+     */
+    public Histogram snapshot() {
+        Histogram snapshot = new Histogram(maxBins);
+        snapshot.copyFrom(read());
+        return snapshot;
+    }
+
+    /**
+     * Copy the histogram into this thread's snapshot, retrying until no update
+     * overlapped the copy.
+     * @return this thread's snapshot
+     */
+    private Histogram read() {
+        Histogram snapshot = snapshots.get();
+        for (int attempt = 1; ; ++attempt) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                // the copy may see a torn histogram, but it only reads, so the
+                // worst that can happen is that it's discarded below.
+                snapshot.copyFrom(histogram);
+                if (lock.validate(stamp)) return snapshot;
+            }
+            if (attempt % 64 == 0) Thread.yield();
+        }
+    }
+}
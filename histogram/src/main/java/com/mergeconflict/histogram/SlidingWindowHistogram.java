@@ -0,0 +1,181 @@
+package com.mergeconflict.histogram;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A histogram of the observations made within a sliding window of time, such
+ * as "the last 60 seconds, updated every second." The window is divided into
+ * a ring of slices, each of which is a {@link Histogram}; observations are
+ * recorded in the live slice, and as the clock passes each slice boundary, the
+ * oldest slice is discarded and reused as the new live slice. Queries merge
+ * the slices, but the merge of the completed slices is cached until the next
+ * rotation, so that only the live slice is merged by each query. A sliding
+ * window histogram is not thread-safe.
+ */
+public final class SlidingWindowHistogram {
+    private final int maxBins;
+    private final long sliceNanos;
+    private final LongSupplier clock;
+
+    // the ring of slices, and the live slice within it, which began at the
+    // given time.
+    private final Histogram[] slices;
+    private int live = 0;
+    private long liveStart;
+
+    // the merge of the completed slices, and of the whole window, lazily
+    // computed for queries.
+    private final Histogram completed, window;
+    private boolean completedValid = true, windowValid = true;
+
+    /**
+     * Construct an empty sliding window histogram, using
+     * {@link System#nanoTime()} as its clock.
+     * @param maxBins maximum number of bins in each slice, and in the window
+     * @param slices number of slices in the window, including the live slice
+     * @param sliceNanos duration of each slice, in nanoseconds
+     */
+    public SlidingWindowHistogram(int maxBins, int slices, long sliceNanos) {
+        this(maxBins, slices, sliceNanos, System::nanoTime);
+    }
+
+    /**
+     * Construct an empty sliding window histogram.
+     * @param maxBins maximum number of bins in each slice, and in the window
+     * @param slices number of slices in the window, including the live slice
+     * @param sliceNanos duration of each slice, in nanoseconds
+     * @param clock a monotonic clock, in nanoseconds
+     */
+    public SlidingWindowHistogram(int maxBins, int slices, long sliceNanos, LongSupplier clock) {
+        if (slices < 1) {
+            throw new IllegalArgumentException("number of slices must be positive: " + slices);
+        }
+        if (sliceNanos < 1) {
+            throw new IllegalArgumentException("slice duration must be positive: " + sliceNanos);
+        }
+        this.maxBins = maxBins;
+        this.sliceNanos = sliceNanos;
+        this.clock = clock;
+        this.slices = new Histogram[slices];
+        for (int s = 0; s < slices; ++s) {
+            this.slices[s] = new Histogram(maxBins);
+        }
+        this.completed = new Histogram(maxBins);
+        this.window = new Histogram(maxBins);
+        this.liveStart = clock.getAsLong();
+    }
+
+    /**
+     * @return the maximum number of bins in each slice, and in the window
+     */
+    public int maxBins() {
+        return maxBins;
+    }
+
+    /**
+     * Update the live slice with a new observation.
+     * @param observation the new data point to be approximated in the histogram
+     */
+    public void update(double observation) {
+        update(observation, 1);
+    }
+
+    /**
+     * Update the live slice with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be approximated in the histogram
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        rotate();
+        slices[live].update(observation, weight);
+        windowValid = false;
+    }
+
+    /**
+     * @return the total number of observations within the window
+     */
+    public long count() {
+        return window().count();
+    }
+
+    /**
+     * Query for approximate values at specified quantiles over the window.
+     * @param quantiles an array of quantiles from 0 to 1, in any order
+     * @return an array containing the approximate values at the specified
+     * quantiles
+     */
+    public double[] query(double... quantiles) {
+        return window().query(quantiles);
+    }
+
+    /**
+     * Query for the approximate value at a single quantile over the window,
+     * without allocating.
+     * @param quantile a quantile from 0 to 1
+     * @return the approximate value at the specified quantile
+     */
+    public double quantile(double quantile) {
+        return window().quantile(quantile);
+    }
+
+    /**
+     * Estimate the fraction of observations within the window less than or
+     * equal to a value.
+     * @param value the value to be ranked
+     * @return the approximate cumulative distribution function at the value,
+     * or NaN if the window is empty
+     */
+    public double cdf(double value) {
+        return window().cdf(value);
+    }
+
+    /**
+     * @return a new histogram of the observations within the window
+     */
+    public Histogram snapshot() {
+        Histogram snapshot = new Histogram(maxBins);
+        snapshot.copyFrom(window());
+        return snapshot;
+    }
+
+    /**
+     * Advance the live slice to the current time, discarding any slices which
+     * have fallen out of the window.
+     */
+    private void rotate() {
+        long ticks = (clock.getAsLong() - liveStart) / sliceNanos;
+        if (ticks <= 0) return;
+        for (long t = 0, n = Math.min(ticks, slices.length); t < n; ++t) {
+            live = live + 1 == slices.length ? 0 : live + 1;
+            slices[live].reset();
+        }
+        liveStart += ticks * sliceNanos;
+        completedValid = false;
+        windowValid = false;
+    }
+
+    /**
+     * @return the merge of all the slices, computing it if necessary
+     */
+    private Histogram window() {
+        rotate();
+        if (windowValid) return window;
+        if (!completedValid) {
+            if (slices.length == 1) {
+                completed.reset();
+            } else {
+                Histogram[] others = new Histogram[slices.length - 1];
+                for (int s = 0, o = 0; s < slices.length; ++s) {
+                    if (s != live) others[o++] = slices[s];
+                }
+                completed.copyFrom(Histogram.mergeAll(others));
+            }
+            completedValid = true;
+        }
+        window.copyFrom(completed);
+        window.merge(slices[live]);
+        windowValid = true;
+        return window;
+    }
+}
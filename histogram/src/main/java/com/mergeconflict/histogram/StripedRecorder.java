@@ -0,0 +1,120 @@
+package com.mergeconflict.histogram;
+
+/**
+ * <p>A thread-safe recorder which stripes updates across a number of
+ * {@link Histogram} shards, so that concurrent writers rarely contend for the
+ * same lock. Each thread is assigned a shard by hashing its id, and each shard
+ * is guarded by its own monitor, which is uncontended as long as there are
+ * more shards than concurrently writing threads. Shards are padded to occupy
+ * their own cache lines, so that writers on different shards don't suffer
+ * from false sharing.</p>
+ *
+ * <p>A {@link #snapshot()} copies each shard in turn, holding its lock only
+ * for the duration of the copy, and then merges the copies. Writers are never
+ * blocked for longer than it takes to copy one shard, and writers to other
+ * shards are not blocked at all. Each shard is copied consistently, although
+ * the snapshot as a whole doesn't correspond to a single instant in time.</p>
+ */
+public final class StripedRecorder {
+    private final int maxBins;
+    private final Shard[] shards;
+    private final int mask;
+
+    /**
+     * Construct a recorder with one shard per available processor.
+     * @param maxBins maximum number of bins in each shard
+     */
+    public StripedRecorder(int maxBins) {
+        this(maxBins, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a recorder with a number of shards, rounded up to the next
+     * power of two.
+     * @param maxBins maximum number of bins in each shard
+     * @param stripes minimum number of shards
+     */
+    public StripedRecorder(int maxBins, int stripes) {
+        int size = 1;
+        while (size < stripes) size *= 2;
+        this.maxBins = maxBins;
+        this.shards = new Shard[size];
+        this.mask = size - 1;
+        for (int shard = 0; shard < size; ++shard) {
+            shards[shard] = new Shard(new Histogram(maxBins));
+        }
+    }
+
+    /**
+     * Update this recorder with a new observation.
+     * @param observation the new data point to be approximated
+     */
+    public void update(double observation) {
+        Shard shard = shard();
+        synchronized (shard) {
+            shard.histogram.update(observation);
+        }
+    }
+
+    /**
+     * Update this recorder with a new observation which occurred some number
+     * of times.
+     * @param observation the new data point to be approximated
+     * @param weight the number of times the observation occurred
+     */
+    public void update(double observation, long weight) {
+        Shard shard = shard();
+        synchronized (shard) {
+            shard.histogram.update(observation, weight);
+        }
+    }
+
+    /**
+     * @return a new histogram combining the observations recorded by all shards
+     */
+    public Histogram snapshot() {
+        Histogram[] copies = new Histogram[shards.length];
+        for (int i = 0; i < shards.length; ++i) {
+            Shard shard = shards[i];
+            copies[i] = new Histogram(maxBins);
+            synchronized (shard) {
+                copies[i].copyFrom(shard.histogram);
+            }
+        }
+        return Histogram.mergeAll(copies);
+    }
+
+    private Shard shard() {
+        // spread the thread id with a multiplicative hash, since ids are
+        // usually allocated sequentially.
+        long id = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+        return shards[(int) (id >>> 32) & mask];
+    }
+
+    // padding before and after the shard's fields, including its monitor in
+    // the object header, to keep them on a cache line of their own. the
+    // padding is split across a class hierarchy since the JVM is otherwise
+    // free to reorder fields.
+
+    @SuppressWarnings("unused")
+    private static class ShardPadding {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class ShardFields extends ShardPadding {
+        final Histogram histogram;
+
+        ShardFields(Histogram histogram) {
+            this.histogram = histogram;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Shard extends ShardFields {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+
+        Shard(Histogram histogram) {
+            super(histogram);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.mergeconflict.histogram;
+
+import java.util.Arrays;
+
+/**
+ * Counters describing the work done by {@link Histogram#update(double, long)},
+ * enabled by {@link Histogram#enableStatistics()}. These show how well the
+ * input suits the insertion gap: for well behaved input, most updates shift
+ * the gap only a short distance, whereas adversarial input shows up as a
+ * shift distance distribution skewed towards the number of bins. Only
+ * observations inserted one at a time are counted, not those merged in
+ * batches. Statistics are not thread-safe, just like the histogram.
+ */
+public final class UpdateStatistics {
+    /**
+     * The number of shift distance buckets. Bucket 0 counts updates which
+     * didn't shift the gap, and bucket {@code b} counts updates which shifted
+     * it at least {@code 2^(b-1)} and less than {@code 2^b} slots.
+     */
+    public static final int BUCKETS = 32;
+
+    private final long[] shiftDistances = new long[BUCKETS];
+    private long updates, shifts, bulkMoves, exactHits, merges, scanned;
+
+    UpdateStatistics() {}
+
+    /**
+     * @return the number of observations inserted one at a time
+     */
+    public long updates() {
+        return updates;
+    }
+
+    /**
+     * @return the total number of slots by which the gap was shifted
+     */
+    public long shifts() {
+        return shifts;
+    }
+
+    /**
+     * @param bucket a bucket from 0 to {@code BUCKETS - 1}
+     * @return the number of updates whose shift distance fell in the bucket
+     */
+    public long shiftDistance(int bucket) {
+        return shiftDistances[bucket];
+    }
+
+    /**
+     * @return the number of observations beyond either end of the bins, for
+     * which the gap was moved to that end with a bulk copy
+     */
+    public long bulkMoves() {
+        return bulkMoves;
+    }
+
+    /**
+     * @return the number of observations equal to the centroid of an existing
+     * bin, which were added to its count in place
+     */
+    public long exactHits() {
+        return exactHits;
+    }
+
+    /**
+     * @return the number of times the closest pair of bins was merged
+     */
+    public long merges() {
+        return merges;
+    }
+
+    /**
+     * @return the total number of adjacent pairs examined to find the closest
+     * pair, either by a linear scan or by refreshing the delta index
+     */
+    public long scanned() {
+        return scanned;
+    }
+
+    /**
+     * Set all counters back to zero.
+     */
+    public void reset() {
+        Arrays.fill(shiftDistances, 0);
+        updates = shifts = bulkMoves = exactHits = merges = scanned = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("updates=").append(updates)
+                .append(" shifts=").append(shifts)
+                .append(" bulkMoves=").append(bulkMoves)
+                .append(" exactHits=").append(exactHits)
+                .append(" merges=").append(merges)
+                .append(" scanned=").append(scanned)
+                .append(" shiftDistances=[");
+        int last = BUCKETS - 1;
+        while (last > 0 && shiftDistances[last] == 0) last--;
+        for (int bucket = 0; bucket <= last; ++bucket) {
+            if (bucket != 0) builder.append(", ");
+            builder.append(shiftDistances[bucket]);
+        }
+        return builder.append(']').toString();
+    }
+
+    void recordUpdate(int distance, boolean bulkMove, boolean exactHit) {
+        updates++;
+        shifts += distance;
+        shiftDistances[32 - Integer.numberOfLeadingZeros(distance)]++;
+        if (bulkMove) bulkMoves++;
+        if (exactHit) exactHits++;
+    }
+
+    void recordMerge(int scanned) {
+        merges++;
+        this.scanned += scanned;
+    }
+}
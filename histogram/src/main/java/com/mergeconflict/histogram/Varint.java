@@ -0,0 +1,44 @@
+package com.mergeconflict.histogram;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of unsigned integers, seven bits per byte with the
+ * high bit set on all but the last byte, and zigzag encoding of signed
+ * integers so that small magnitudes of either sign take few bytes.
+ */
+final class Varint {
+    /**
+     * The maximum number of bytes required to encode a long.
+     */
+    static final int MAX_LONG_BYTES = 10;
+
+    private Varint() {}
+
+    static void putUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getUnsigned(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    static void putSigned(ByteBuffer buffer, long value) {
+        putUnsigned(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getSigned(ByteBuffer buffer) {
+        long value = getUnsigned(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
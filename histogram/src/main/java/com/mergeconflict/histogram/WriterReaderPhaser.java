@@ -0,0 +1,68 @@
+package com.mergeconflict.histogram;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A phased synchronization primitive which lets writers enter and exit
+ * critical sections without blocking, and lets a reader wait for all writers
+ * which entered before a "phase flip" to exit. This is the same design as the
+ * WriterReaderPhaser in HdrHistogram.</p>
+ *
+ * <p>Writers increment a start epoch on entry, and one of two end epochs on
+ * exit, depending on the sign of the start epoch they observed. To flip, the
+ * reader resets the start epoch to the other sign, and then waits for the end
+ * epoch of the previous phase to catch up with the start epoch it replaced.</p>
+ */
+final class WriterReaderPhaser {
+    private static final AtomicLongFieldUpdater<WriterReaderPhaser>
+            START = AtomicLongFieldUpdater.newUpdater(WriterReaderPhaser.class, "startEpoch"),
+            EVEN_END = AtomicLongFieldUpdater.newUpdater(WriterReaderPhaser.class, "evenEndEpoch"),
+            ODD_END = AtomicLongFieldUpdater.newUpdater(WriterReaderPhaser.class, "oddEndEpoch");
+
+    private volatile long startEpoch = 0;
+    private volatile long evenEndEpoch = 0;
+    private volatile long oddEndEpoch = Long.MIN_VALUE;
+
+    private final ReentrantLock readerLock = new ReentrantLock();
+
+    /**
+     * @return a value to be passed to {@link #writerCriticalSectionExit(long)}
+     */
+    long writerCriticalSectionEnter() {
+        return START.getAndIncrement(this);
+    }
+
+    void writerCriticalSectionExit(long enterValue) {
+        (enterValue < 0 ? ODD_END : EVEN_END).getAndIncrement(this);
+    }
+
+    void readerLock() {
+        readerLock.lock();
+    }
+
+    void readerUnlock() {
+        readerLock.unlock();
+    }
+
+    /**
+     * Flip the phase, and wait for all writers which entered their critical
+     * sections in the previous phase to exit. The reader lock must be held.
+     */
+    void flipPhase() {
+        if (!readerLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("flipPhase() requires the reader lock");
+        }
+
+        // reset the end epoch of the next phase before starting it ...
+        boolean nextPhaseIsEven = startEpoch < 0;
+        long initialValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? EVEN_END : ODD_END).set(this, initialValue);
+        long startValueAtFlip = START.getAndSet(this, initialValue);
+
+        // ... and wait for writers in the previous phase to catch up.
+        while ((nextPhaseIsEven ? oddEndEpoch : evenEndEpoch) != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+}
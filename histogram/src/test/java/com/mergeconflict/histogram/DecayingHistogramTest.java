@@ -0,0 +1,77 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecayingHistogramTest {
+
+    @Test
+    public void recentObservationsMustDominate() {
+        AtomicLong clock = new AtomicLong();
+        DecayingHistogram histogram = new DecayingHistogram(10, 1000, clock::get);
+        for (int i = 0; i < 100; ++i) {
+            histogram.update(i);
+        }
+        assertEquals(100, histogram.weight(), 0.01);
+        assertEquals(50, histogram.quantile(0.5), 2);
+
+        // after one half-life, equally many new observations must carry twice
+        // the weight of the old ones ...
+        clock.set(1000);
+        assertEquals(50, histogram.weight(), 0.01);
+        for (int i = 0; i < 100; ++i) {
+            histogram.update(1000 + i);
+        }
+        assertEquals(150, histogram.weight(), 0.01);
+        assertEquals(1 / 3d, histogram.cdf(500), 0.01);
+
+        // ... and after many half-lives, the old ones must be negligible.
+        clock.set(30000);
+        histogram.update(5000, 100);
+        assertEquals(100, histogram.weight(), 0.01);
+        assertEquals(5000, histogram.quantile(0.01), 0);
+    }
+
+    @Test
+    public void renormalizationMustPreserveDecayedWeight() {
+        AtomicLong clock = new AtomicLong();
+        DecayingHistogram histogram = new DecayingHistogram(20, 1000, clock::get);
+        double expected = 0, decay = Math.pow(0.5, 1 / 1000d);
+
+        // a steady stream over a thousand half-lives, which must move the
+        // landmark many times over without overflowing.
+        for (long t = 0; t < 1000000; ++t) {
+            clock.set(t);
+            expected *= decay;
+            if (t % 10 == 0) {
+                histogram.update(t % 1000, 1000);
+                expected += 1000;
+            }
+        }
+        assertEquals(expected, histogram.weight(), expected * 0.01);
+        assertTrue(histogram.quantile(0.5) > 250 && histogram.quantile(0.5) < 750);
+    }
+
+    @Test
+    public void expiredOutlierMustNotStretchTail() {
+        AtomicLong clock = new AtomicLong();
+        DecayingHistogram histogram = new DecayingHistogram(20, 1000, clock::get);
+        Random random = new Random(23);
+
+        // a single outlier, followed by a hundred half-lives of small values,
+        // which must leave nothing of it behind.
+        histogram.update(1e6);
+        for (long t = 1; t <= 100000; ++t) {
+            clock.set(t);
+            histogram.update(random.nextDouble());
+        }
+        assertTrue(histogram.quantile(0.99) < 1);
+        assertTrue(histogram.quantile(1) < 1);
+        assertEquals(1, histogram.cdf(2), 0);
+    }
+}
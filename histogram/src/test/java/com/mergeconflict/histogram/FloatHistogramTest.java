@@ -0,0 +1,187 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FloatHistogramTest {
+
+    @Test
+    public void compactMustMatchHistogram() {
+        Random random = new Random(20);
+        FloatHistogram compact = new FloatHistogram(10);
+        Histogram wide = new Histogram(10);
+        double[] observations = new double[10000];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = random.nextGaussian();
+            compact.update(observations[i]);
+            wide.update(observations[i]);
+        }
+        assertTrue(compact.isCompact());
+        assertEquals(wide.count(), compact.count());
+        assertEquals(wide.min(), compact.min(), 0);
+        assertEquals(wide.max(), compact.max(), 0);
+
+        // the centroids are rounded to single precision, so allow a little
+        // slack.
+        for (double q = 0; q <= 1; q += 0.05) {
+            assertEquals(wide.quantile(q), compact.quantile(q), 1e-4);
+        }
+        assertEquals(wide.cdf(0.5), compact.cdf(0.5), 1e-4);
+        HistogramTest.assertFits(observations, compact.toHistogram());
+    }
+
+    @Test
+    public void queriesMustMatchHistogramExactly() {
+        // small integers are exact in single precision, so without any merges
+        // the bins are identical, and so must be the queries, whichever end
+        // they're scanned from.
+        Random random = new Random(23);
+        FloatHistogram compact = new FloatHistogram(300);
+        Histogram wide = new Histogram(300);
+        for (int i = 0; i < 10000; ++i) {
+            int observation = random.nextInt(200);
+            compact.update(observation);
+            wide.update(observation);
+        }
+        for (double q = 0; q <= 1; q += 0.001) {
+            assertEquals(wide.quantile(q), compact.quantile(q), 0);
+        }
+        for (double value = -1; value <= 201; value += 0.25) {
+            assertEquals(wide.rank(value), compact.rank(value), 0);
+        }
+    }
+
+    @Test
+    public void indexMustMatchScan() {
+        Random random = new Random(21);
+        FloatHistogram scanned = new FloatHistogram(Histogram.INDEX_THRESHOLD - 1);
+        FloatHistogram indexed = new FloatHistogram(Histogram.INDEX_THRESHOLD);
+        for (int i = 0; i < 100000; ++i) {
+            double observation = random.nextGaussian();
+            scanned.update(observation);
+            indexed.update(observation);
+        }
+        for (double q = 0.05; q < 1; q += 0.05) {
+            assertEquals(scanned.quantile(q), indexed.quantile(q), 0.02);
+        }
+    }
+
+    @Test
+    public void floatIndexMustFindClosestPair() {
+        Random random = new Random(22);
+        int pairs = 200;
+        float[] centroids = new float[pairs + 1];
+        for (int i = 0; i <= pairs; ++i) {
+            centroids[i] = (float) random.nextGaussian();
+        }
+        Arrays.sort(centroids);
+        FloatDeltaIndex index = new FloatDeltaIndex(pairs);
+        index.refresh(centroids, 0, pairs);
+
+        // move runs of centroids, as shifting the gap does, refreshing only
+        // the pairs around them, and sometimes create ties to the leftmost.
+        for (int round = 0; round < 1000; ++round) {
+            assertEquals(closestPair(centroids), index.min());
+            int from = random.nextInt(pairs), to = Math.min(pairs, from + random.nextInt(8));
+            float lo = from == 0 ? -10 : centroids[from - 1], hi = to == pairs ? 10 : centroids[to + 1];
+            for (int i = from; i <= to; ++i) {
+                centroids[i] = lo + (hi - lo) * (i - from + 1) / (to - from + 2);
+            }
+            if (round % 10 == 0 && from > 0) {
+                centroids[from] = centroids[from - 1];
+            }
+            index.refresh(centroids, from - 1, to);
+        }
+    }
+
+    private static int closestPair(float[] centroids) {
+        int pair = 0;
+        float minDelta = Float.POSITIVE_INFINITY;
+        for (int bin = 0; bin + 1 < centroids.length; ++bin) {
+            float delta = centroids[bin + 1] - centroids[bin];
+            if (delta < minDelta) {
+                pair = bin;
+                minDelta = delta;
+            }
+        }
+        return pair;
+    }
+
+    @Test
+    public void overflowMustPromote() {
+        FloatHistogram histogram = new FloatHistogram(2);
+        histogram.update(1, Integer.MAX_VALUE - 1);
+        histogram.update(2);
+        histogram.update(1);
+        assertTrue(histogram.isCompact());
+
+        // an exact hit which would overflow ...
+        histogram.update(1);
+        assertFalse(histogram.isCompact());
+        assertEquals(Integer.MAX_VALUE + 2L, histogram.count());
+        assertEquals(1, histogram.quantile(0.5), 1e-6);
+        assertEquals(2, histogram.max(), 0);
+
+        // ... or a merge which would, ...
+        histogram = new FloatHistogram(2);
+        histogram.update(1, Integer.MAX_VALUE);
+        histogram.update(2, Integer.MAX_VALUE);
+        histogram.update(4);
+        assertFalse(histogram.isCompact());
+        assertEquals(2L * Integer.MAX_VALUE + 1, histogram.count());
+        assertEquals(0.5, histogram.cdf(1.5), 1e-6);
+
+        // ... or a weight too large for a bin at all.
+        histogram = new FloatHistogram(2);
+        histogram.update(3);
+        histogram.update(3, 1L << 40);
+        assertFalse(histogram.isCompact());
+        assertEquals((1L << 40) + 1, histogram.count());
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertTrue(Double.isNaN(histogram.cdf(3)));
+    }
+
+    @Test
+    public void boundsMustBeExact() {
+        FloatHistogram histogram = new FloatHistogram(10);
+        histogram.update(0.1);
+        histogram.update(0.7);
+        assertEquals(0.1, histogram.quantile(0), 0);
+        assertEquals(0.7, histogram.quantile(1), 0);
+        assertEquals(0.1, histogram.toHistogram().min(), 0);
+        assertEquals(0.7, histogram.toHistogram().max(), 0);
+
+        // 0.1f is just above 0.1 and 0.7f just below 0.7, so these bins round
+        // outwards, beyond the bounds ...
+        histogram = new FloatHistogram(10);
+        histogram.update(-1);
+        histogram.update(0.1);
+        assertTrue(histogram.quantile(0.99) <= 0.1);
+        assertEquals(1, histogram.cdf(0.1), 0);
+        assertEquals(0.1, histogram.toHistogram().max(), 0);
+        assertTrue(histogram.toHistogram().quantile(0.99) <= 0.1);
+
+        histogram = new FloatHistogram(10);
+        histogram.update(0.7);
+        histogram.update(2);
+        assertTrue(histogram.quantile(0.01) >= 0.7);
+        assertEquals(0.7, histogram.toHistogram().min(), 0);
+
+        // ... as does a lone bin, which must stay within them after promotion.
+        histogram = new FloatHistogram(10);
+        histogram.update(0.1);
+        assertTrue(histogram.quantile(0.99) <= 0.1);
+        histogram.update(0.1, 1L << 40);
+        assertFalse(histogram.isCompact());
+        assertEquals(0.1, histogram.min(), 0);
+        assertEquals(0.1, histogram.max(), 0);
+        assertTrue(histogram.quantile(0.99) <= 0.1);
+    }
+}
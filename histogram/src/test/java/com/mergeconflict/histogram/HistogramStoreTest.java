@@ -0,0 +1,82 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogramsMustSurviveReopening() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("histograms");
+        try (HistogramStore store = HistogramStore.open(file, 100, 10)) {
+            assertTrue(store.wasClean());
+            for (int i = 0; i < 100; ++i) {
+                for (int j = 0; j <= i; ++j) {
+                    store.get(i).update(j);
+                }
+            }
+        }
+
+        try (HistogramStore store = HistogramStore.open(file, 100, 10)) {
+            assertTrue(store.wasClean());
+            for (int i = 0; i < 100; ++i) {
+                assertTrue(store.verify(i));
+                assertEquals(i + 1, store.get(i).count());
+                assertEquals(i, store.get(i).max(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void recoveryMustResetOnlyCorruptHistograms() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("histograms");
+        HistogramStore crashed = HistogramStore.open(file, 3, 10);
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < 50; ++j) {
+                crashed.get(i).update(j);
+            }
+        }
+        crashed.checkpoint();
+
+        // update one histogram after the checkpoint, and corrupt the count of
+        // another, without closing the store.
+        crashed.get(0).update(100);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            int entryBytes = 8 + OffHeapHistogram.sizeOf(10);
+            ByteBuffer garbage = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 12345);
+            channel.write(garbage, 64 + entryBytes + 8 + 16);
+        }
+
+        try (HistogramStore store = HistogramStore.open(file, 3, 10)) {
+            assertFalse(store.wasClean());
+            assertTrue(store.verify(0));
+            assertFalse(store.verify(1));
+            assertTrue(store.verify(2));
+            assertEquals(1, store.recover());
+            assertEquals(51, store.get(0).count());
+            assertEquals(0, store.get(1).count());
+            assertEquals(50, store.get(2).count());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void openMustRejectMismatchedStore() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("histograms");
+        HistogramStore.open(file, 10, 10).close();
+        HistogramStore.open(file, 10, 20);
+    }
+}
@@ -0,0 +1,615 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistogramTest {
+
+    @Test
+    public void histogramMustFitData() {
+        // use the current thread's random number generator
+        Random random = ThreadLocalRandom.current();
+
+        // store exact observations to compare to the histogram approximations
+        Histogram histogram = new Histogram(10);
+        double[] expected = new double[1000];
+        for (int i = 0; i < 1000; ++i) {
+            double observation = random.nextGaussian();
+            histogram.update(observation);
+            expected[i] = observation;
+        }
+        assertFits(expected, histogram);
+    }
+
+    @Test
+    public void mergedHistogramMustFitData() {
+        Random random = new Random(1);
+
+        // spread observations across several partial histograms ...
+        Histogram[] partials = new Histogram[4];
+        for (int p = 0; p < partials.length; ++p) {
+            partials[p] = new Histogram(10);
+        }
+        double[] expected = new double[1000];
+        for (int i = 0; i < 1000; ++i) {
+            double observation = random.nextGaussian();
+            partials[i % partials.length].update(observation);
+            expected[i] = observation;
+        }
+
+        // ... and merge them back together both ways.
+        Histogram merged = new Histogram(10);
+        for (Histogram partial : partials) {
+            merged.merge(partial);
+        }
+        assertEquals(1000, merged.count());
+        assertFits(expected, merged);
+        assertFits(expected, Histogram.mergeAll(partials));
+    }
+
+    @Test
+    public void mergeWithSpareBinsMustBeExact() {
+        Histogram lhs = new Histogram(10), rhs = new Histogram(10), all = new Histogram(10);
+        for (int i = 0; i < 20; ++i) {
+            (i % 2 == 0 ? lhs : rhs).update(i % 7);
+            all.update(i % 7);
+        }
+        lhs.merge(rhs);
+
+        double[] quantiles = {0.00, 0.10, 0.25, 0.50, 0.75, 0.90, 1.00};
+        assertArrayEquals(all.query(quantiles), lhs.query(quantiles), 0);
+        assertArrayEquals(all.query(quantiles), Histogram.mergeAll(lhs).query(quantiles), 0);
+        assertEquals(0, lhs.min(), 0);
+        assertEquals(6, lhs.max(), 0);
+    }
+
+    @Test
+    public void batchUpdateMustFitData() {
+        Random random = new Random(3);
+        Histogram histogram = new Histogram(10);
+        double[] observations = new double[1000];
+        for (int i = 0; i < 1000; ++i) {
+            observations[i] = random.nextGaussian();
+        }
+        for (int offset = 0; offset < 1000; offset += 250) {
+            histogram.update(observations, offset, 250);
+        }
+        assertEquals(1000, histogram.count());
+        assertFits(observations, histogram);
+    }
+
+    @Test
+    public void batchUpdateWithSpareBinsMustBeExact() {
+        Histogram batched = new Histogram(10), single = new Histogram(10);
+        double[] observations = {5, 3, 3, 9, 1, 5, 5, 0, 2, 2};
+        batched.update(observations, 2, 8);
+        for (int i = 2; i < 10; ++i) {
+            single.update(observations[i]);
+        }
+
+        double[] quantiles = {0.00, 0.10, 0.25, 0.50, 0.75, 0.90, 1.00};
+        assertArrayEquals(single.query(quantiles), batched.query(quantiles), 0);
+        assertEquals(8, batched.count());
+    }
+
+    @Test
+    public void parallelBuildMustFitData() {
+        Random random = new Random(12);
+        double[] observations = new double[500000];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = random.nextGaussian();
+        }
+        double[] copy = observations.clone();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Histogram histogram = Histogram.build(observations, 10, pool);
+            assertEquals(observations.length, histogram.count());
+            assertFits(observations, histogram);
+            assertArrayEquals(copy, observations, 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void bufferedUpdateMustFitData() {
+        Random random = new Random(9);
+        Histogram histogram = new Histogram(10, 40);
+        double[] observations = new double[1000];
+        for (int i = 0; i < 1000; ++i) {
+            observations[i] = random.nextGaussian();
+            histogram.update(observations[i]);
+        }
+        assertEquals(1000, histogram.count());
+        assertFits(observations, histogram);
+    }
+
+    @Test
+    public void bufferedUpdateWithSpareBinsMustBeExact() {
+        Histogram buffered = new Histogram(10, 4), single = new Histogram(10);
+        double[] observations = {5, 3, 3, 9, 1, 5, 5, 0, 2, 2};
+        for (double observation : observations) {
+            buffered.update(observation);
+            single.update(observation);
+        }
+        buffered.update(7, 3);
+        single.update(7, 3);
+
+        // the last observations are still buffered, and must be seen by queries.
+        double[] quantiles = {0.00, 0.10, 0.25, 0.50, 0.75, 0.90, 1.00};
+        assertArrayEquals(single.query(quantiles), buffered.query(quantiles), 0);
+        buffered.update(8);
+        single.update(8);
+        assertEquals(single.rank(6), buffered.rank(6), 0);
+        assertEquals(14, buffered.count());
+    }
+
+    @Test
+    public void bufferedUpdateMustNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Random random = new Random(22);
+        double[] observations = new double[1 << 16];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = random.nextGaussian();
+        }
+        Histogram histogram = new Histogram(1000, 4000);
+
+        // warm up, and then measure many flushes of the buffer.
+        for (double observation : observations) {
+            histogram.update(observation);
+        }
+        long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (double observation : observations) {
+            histogram.update(observation);
+        }
+        long after = threads.getThreadAllocatedBytes(thread);
+        assertEquals(0, after - before - overhead);
+        assertEquals(2 * observations.length, histogram.count());
+    }
+
+    @Test
+    public void weightedUpdateMustFitData() {
+        Random random = new Random(4);
+        Histogram histogram = new Histogram(10);
+        double[] observations = new double[1000];
+        for (int i = 0; i < 1000; i += 10) {
+            double observation = random.nextGaussian();
+            histogram.update(observation, 10);
+            Arrays.fill(observations, i, i + 10, observation);
+        }
+        assertEquals(1000, histogram.count());
+        assertFits(observations, histogram);
+    }
+
+    @Test
+    public void weightedUpdateWithSpareBinsMustBeExact() {
+        Histogram weighted = new Histogram(10), repeated = new Histogram(10);
+        for (int i = 1; i <= 5; ++i) {
+            weighted.update(i * 1.5, i);
+            for (int j = 0; j < i; ++j) {
+                repeated.update(i * 1.5);
+            }
+        }
+
+        double[] quantiles = {0.00, 0.10, 0.25, 0.50, 0.75, 0.90, 1.00};
+        assertArrayEquals(repeated.query(quantiles), weighted.query(quantiles), 0);
+        assertEquals(15, weighted.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightedUpdateMustRejectNonPositiveWeight() {
+        new Histogram(10).update(1, 0);
+    }
+
+    @Test
+    public void statisticsMustCountWork() {
+        Histogram histogram = new Histogram(10);
+        assertEquals(null, histogram.statistics());
+        UpdateStatistics statistics = histogram.enableStatistics();
+
+        histogram.update(1);
+        histogram.update(5);
+        histogram.update(3);
+        histogram.update(3);
+        histogram.update(0);
+        assertEquals(5, statistics.updates());
+        assertEquals(1, statistics.exactHits());
+        assertEquals(1, statistics.bulkMoves());
+        assertEquals(2, statistics.shifts());
+        assertEquals(3, statistics.shiftDistance(0));
+        assertEquals(2, statistics.shiftDistance(1));
+        assertEquals(0, statistics.merges());
+
+        for (int i = 10; i < 20; ++i) {
+            histogram.update(i);
+        }
+        assertEquals(15, statistics.updates());
+        assertEquals(4, statistics.merges());
+        assertEquals(40, statistics.scanned());
+
+        statistics.reset();
+        assertEquals(0, statistics.updates());
+        assertEquals(0, statistics.shiftDistance(0));
+    }
+
+    @Test
+    public void outOfRangeUpdatesMustMoveGapInBulk() {
+        Histogram histogram = new Histogram(4);
+        UpdateStatistics statistics = histogram.enableStatistics();
+
+        // filling the bins in order leaves the gap at the end, so no bulk move
+        // is needed until a merge leaves it behind the merged pair ...
+        for (int i = 1; i <= 5; ++i) {
+            histogram.update(i);
+        }
+        assertEquals(0, statistics.bulkMoves());
+        assertBins(new double[] {1.5, 3, 4, 5}, new long[] {2, 1, 1, 1}, 4, histogram);
+
+        // ... after which each observation beyond the max moves it straight
+        // to the end.
+        histogram.update(6);
+        histogram.update(7);
+        assertEquals(2, statistics.bulkMoves());
+        assertEquals(0, statistics.shifts());
+        assertBins(new double[] {1.5, 3.5, 5.5, 7}, new long[] {2, 2, 2, 1}, 4, histogram);
+
+        // weighted observations below the min move it straight to the start,
+        // unless it's already there.
+        histogram.update(0, 2);
+        histogram.update(-1, 3);
+        histogram.update(-2);
+        assertEquals(4, statistics.bulkMoves());
+        assertEquals(0, statistics.shifts());
+        assertBins(new double[] {-1.25, 0.75, 3.5, 6}, new long[] {4, 4, 2, 3}, 4, histogram);
+        assertEquals(13, histogram.count());
+        assertEquals(-2, histogram.min(), 0);
+        assertEquals(7, histogram.max(), 0);
+
+        // batches beyond either end must land in order too, and leave the gap
+        // where later updates still find it.
+        histogram = new Histogram(20);
+        statistics = histogram.enableStatistics();
+        histogram.update(new double[] {10, 11, 12}, 0, 3);
+        histogram.update(new double[] {15, 14, 13}, 0, 3);
+        histogram.update(new double[] {2, 0, 1}, 0, 3);
+        histogram.update(20, 2);
+        histogram.update(-1);
+        assertBins(
+                new double[] {-1, 0, 1, 2, 10, 11, 12, 13, 14, 15, 20},
+                new long[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2},
+                11, histogram);
+        assertEquals(1, statistics.bulkMoves());
+        assertEquals(-1, histogram.min(), 0);
+        assertEquals(20, histogram.max(), 0);
+    }
+
+    @Test
+    public void queryIntoArrayMustMatchQuery() {
+        Random random = new Random(5);
+        Histogram histogram = new Histogram(10);
+        for (int i = 0; i < 1000; ++i) {
+            histogram.update(random.nextGaussian());
+        }
+
+        double[] quantiles = {0.00, 0.01, 0.25, 0.50, 0.75, 0.99, 1.00};
+        double[] expected = histogram.query(quantiles), actual = new double[quantiles.length];
+        histogram.query(quantiles, actual);
+        assertArrayEquals(expected, actual, 0);
+        for (int q = 0; q < quantiles.length; ++q) {
+            assertEquals(expected[q], histogram.quantile(quantiles[q]), 0);
+        }
+    }
+
+    @Test
+    public void queryMustAcceptUnsortedQuantilesAndSeeUpdates() {
+        Histogram histogram = new Histogram(10);
+        for (int i = 0; i < 100; ++i) {
+            histogram.update(i);
+        }
+        double[] sorted = histogram.query(0.1, 0.5, 0.9);
+        double[] unsorted = histogram.query(0.9, 0.1, 0.5);
+        assertArrayEquals(new double[] {sorted[2], sorted[0], sorted[1]}, unsorted, 0);
+
+        // cached totals must be invalidated by any kind of update ...
+        histogram.update(1000, 100);
+        assertTrue(histogram.quantile(0.9) > sorted[2]);
+        histogram.reset();
+        histogram.update(5);
+        assertEquals(5, histogram.quantile(0.5), 0);
+    }
+
+    @Test
+    public void cdfMustInvertQuantile() {
+        Random random = new Random(7);
+        Histogram histogram = new Histogram(20);
+        for (int i = 0; i < 10000; ++i) {
+            histogram.update(random.nextGaussian());
+        }
+
+        double[] quantiles = new double[99], values = new double[99], result = new double[99];
+        Arrays.setAll(quantiles, i -> (i + 1) / 100d);
+        histogram.query(quantiles, values);
+        histogram.cdf(values, result);
+        assertArrayEquals(quantiles, result, 1e-9);
+        for (int i = 0; i < 99; ++i) {
+            assertEquals(quantiles[i], histogram.cdf(values[i]), 1e-9);
+            assertEquals(quantiles[i] * 10000, histogram.rank(values[i]), 1e-5);
+        }
+
+        // values outside the observed range are clamped ...
+        assertEquals(0, histogram.rank(histogram.min() - 1), 0);
+        assertEquals(1, histogram.cdf(histogram.max()), 0);
+
+        // ... and unsorted values must give the same answers as sorted ones.
+        histogram.cdf(new double[] {values[90], values[10], values[50]}, result);
+        assertArrayEquals(new double[] {0.91, 0.11, 0.51}, Arrays.copyOf(result, 3), 1e-9);
+    }
+
+    @Test
+    public void queryIntoArrayMustNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        Random random = new Random(6);
+        Histogram histogram = new Histogram(100);
+        for (int i = 0; i < 10000; ++i) {
+            histogram.update(random.nextGaussian());
+        }
+        double[] quantiles = {0.50, 0.90, 0.99, 0.999}, result = new double[quantiles.length];
+
+        // warm up, so that nothing is allocated by class loading or compilation,
+        // and measure the overhead of measuring itself ...
+        double sink = 0;
+        for (int i = 0; i < 100000; ++i) {
+            histogram.query(quantiles, result);
+            sink += histogram.quantile(0.5);
+        }
+        long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) {
+            histogram.query(quantiles, result);
+            sink += histogram.quantile(0.5);
+        }
+        long after = threads.getThreadAllocatedBytes(thread);
+        assertEquals(0, after - before - overhead);
+        assertFalse(Double.isNaN(sink));
+    }
+
+    @Test
+    public void serializationMustRoundTrip() {
+        Random random = new Random(8);
+        Histogram histogram = new Histogram(50);
+        for (int i = 0; i < 10000; ++i) {
+            histogram.update(random.nextGaussian() * 100);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        histogram.writeTo(buffer);
+        buffer.flip();
+        Histogram copy = Histogram.readFrom(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        assertEquals(histogram.maxBins(), copy.maxBins());
+        assertEquals(histogram.count(), copy.count());
+        assertEquals(histogram.min(), copy.min(), 0);
+        assertEquals(histogram.max(), copy.max(), 0);
+        double[] quantiles = {0.00, 0.01, 0.25, 0.50, 0.75, 0.99, 1.00};
+        assertArrayEquals(histogram.query(quantiles), copy.query(quantiles), 0);
+
+        // an empty histogram must round trip too ...
+        buffer.clear();
+        new Histogram(10).writeTo(buffer);
+        buffer.flip();
+        assertEquals(0, Histogram.readFrom(buffer).count());
+    }
+
+    @Test
+    public void serializationMustBeCompact() {
+        // each centroid takes a header byte and the bytes which differ from the
+        // previous one, and each count a varint.
+        Histogram histogram = new Histogram(10);
+        histogram.update(1);
+        histogram.update(2);
+        histogram.update(3, 200);
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        histogram.writeTo(buffer);
+        assertEquals(1 + 1 + 1 + 2 + 16 + (3 + 1) + (3 + 1) + (2 + 2), buffer.position());
+
+        // integer observations need only a few bytes per centroid ...
+        Random random = new Random(9);
+        histogram = new Histogram(1000);
+        for (int i = 0; i < 100000; ++i) {
+            histogram.update(random.nextInt(800) + 1);
+        }
+        buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        histogram.writeTo(buffer);
+        assertEquals(800, histogram.bins());
+        assertTrue(buffer.position() < 30 + 800 * (3 + 2));
+
+        // ... and even merged centroids take less than a double.
+        histogram = new Histogram(1000);
+        for (int i = 0; i < 100000; ++i) {
+            histogram.update(random.nextGaussian() * 1e6);
+        }
+        buffer.clear();
+        histogram.writeTo(buffer);
+        assertTrue(buffer.position() < 30 + 1000 * (8 + 1));
+    }
+
+    @Test
+    public void serializationMustNotDependOnByteOrder() {
+        Histogram histogram = new Histogram(10);
+        histogram.update(-1.5);
+        histogram.update(42);
+
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.maxSerializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        histogram.writeTo(buffer);
+        buffer.flip();
+        Histogram copy = Histogram.readFrom(buffer.order(ByteOrder.BIG_ENDIAN));
+        assertEquals(-1.5, copy.min(), 0);
+        assertEquals(42, copy.max(), 0);
+    }
+
+    @Test
+    public void deserializationMustRejectCorruptSizes() {
+        // a huge maximum number of bins must not be allocated ...
+        assertRejected(new byte[] {1, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0, 0});
+
+        // ... nor more bins than the payload could hold ...
+        assertRejected(new byte[] {1, 10, 10, 0, 0, 0, 0, 0});
+
+        // ... and the bins must add up to the count ...
+        Histogram histogram = new Histogram(10);
+        histogram.update(1);
+        histogram.update(2);
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        histogram.writeTo(buffer);
+        buffer.flip();
+        byte[] payload = Arrays.copyOf(buffer.array(), buffer.limit());
+        payload[3] = 3;
+        assertRejected(payload);
+
+        // ... and each centroid header must fit in eight bytes.
+        payload[3] = 2;
+        payload[20] = (byte) 0x55;
+        assertRejected(payload);
+    }
+
+    private static void assertRejected(byte[] payload) {
+        try {
+            Histogram.readFrom(ByteBuffer.wrap(payload));
+            fail("expected corrupt payload to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializationMustRejectUnknownVersion() {
+        Histogram.readFrom(ByteBuffer.wrap(new byte[] {99, 0, 0, 0}));
+    }
+
+    @Test
+    public void updateMustMatchReferenceImplementation() {
+        Random random = new Random(2);
+        double[] gaussian = new double[20000], ascending = new double[20000], descending = new double[20000];
+        for (int i = 0; i < gaussian.length; ++i) {
+            gaussian[i] = random.nextGaussian();
+            ascending[i] = i + random.nextDouble();
+            descending[i] = -ascending[i];
+        }
+
+        // cover both the linear scan and the delta index ...
+        for (int maxBins : new int[] {10, Histogram.INDEX_THRESHOLD + 72}) {
+            for (double[] observations : new double[][] {gaussian, ascending, descending}) {
+                Histogram histogram = new Histogram(maxBins);
+                for (double observation : observations) {
+                    histogram.update(observation);
+                }
+                double[] centroids = new double[maxBins + 1];
+                long[] counts = new long[maxBins + 1];
+                int bins = reference(observations, centroids, counts);
+                assertBins(centroids, counts, bins, histogram);
+            }
+        }
+    }
+
+    /**
+     * A naive implementation of the update procedure from the paper, which
+     * always keeps its bins packed at the front of the arrays.
+     * @return the number of bins
+     */
+    static int reference(double[] observations, double[] centroids, long[] counts) {
+        int maxBins = centroids.length - 1, bins = 0;
+        for (double observation : observations) {
+            int bin = 0;
+            while (bin < bins && centroids[bin] < observation) bin++;
+            if (bin < bins && centroids[bin] == observation) {
+                counts[bin]++;
+                continue;
+            }
+            System.arraycopy(centroids, bin, centroids, bin + 1, bins - bin);
+            System.arraycopy(counts, bin, counts, bin + 1, bins - bin);
+            centroids[bin] = observation;
+            counts[bin] = 1;
+            if (++bins <= maxBins) continue;
+
+            int closest = 0;
+            for (int lhs = 1; lhs < maxBins; ++lhs) {
+                if (centroids[lhs + 1] - centroids[lhs] <
+                        centroids[closest + 1] - centroids[closest]) {
+                    closest = lhs;
+                }
+            }
+            centroids[closest + 1] =
+                    (centroids[closest] * counts[closest] +
+                     centroids[closest + 1] * counts[closest + 1]) /
+                    (counts[closest] + counts[closest + 1]);
+            counts[closest + 1] = counts[closest] + counts[closest + 1];
+            System.arraycopy(centroids, closest + 1, centroids, closest, maxBins - closest);
+            System.arraycopy(counts, closest + 1, counts, closest, maxBins - closest);
+            bins--;
+        }
+        return bins;
+    }
+
+    /**
+     * Assert that a histogram has exactly the given bins.
+     */
+    static void assertBins(double[] centroids, long[] counts, int bins, Histogram actual) {
+        double[] actualCentroids = new double[actual.bins()];
+        long[] actualCounts = new long[actual.bins()];
+        actual.copyBins(actualCentroids, actualCounts);
+        assertArrayEquals(Arrays.copyOf(centroids, bins), actualCentroids, 0);
+        assertArrayEquals(Arrays.copyOf(counts, bins), actualCounts);
+    }
+
+    /**
+     * Assert that the histogram approximates the given observations, by
+     * querying it at quantiles from 0 to 1 and computing R squared.
+     */
+    static void assertFits(double[] observations, Histogram histogram) {
+        int n = observations.length;
+        double[] expected = observations.clone();
+        Arrays.sort(expected);
+
+        // query the histogram at quantiles from 0 to 1 inclusive
+        double[] quantiles = new double[n];
+        Arrays.setAll(quantiles, i -> i / (n - 1d));
+        double[] actual = histogram.query(quantiles);
+
+        // compute R squared ...
+        double mean = 0;
+        for (int i = 0; i < n; ++i) {
+            mean += actual[i];
+        }
+        mean /= n;
+
+        double residualSumOfSquares = 0, totalSumOfSquares = 0;
+        for (int i = 0; i < n; ++i) {
+            residualSumOfSquares += Math.pow(actual[i] - expected[i], 2);
+            totalSumOfSquares += Math.pow(actual[i] - mean, 2);
+        }
+        residualSumOfSquares = Math.sqrt(residualSumOfSquares / n);
+        totalSumOfSquares = Math.sqrt(totalSumOfSquares / n);
+        assertEquals(1, 1 - residualSumOfSquares / totalSumOfSquares, 0.05);
+    }
+}
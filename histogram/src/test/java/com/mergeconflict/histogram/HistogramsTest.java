@@ -0,0 +1,54 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class HistogramsTest {
+
+    @Test
+    public void parallelCollectMustFitData() {
+        Random random = new Random(11);
+        double[] observations = new double[100000];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = random.nextGaussian();
+        }
+        for (int maxBins : new int[] {10, Histogram.INDEX_THRESHOLD}) {
+            Histogram histogram = Histograms.collect(Arrays.stream(observations).parallel(), maxBins);
+            assertEquals(observations.length, histogram.count());
+            HistogramTest.assertFits(observations, histogram);
+        }
+    }
+
+    @Test
+    public void collectedHistogramsMustNotKeepBuffer() {
+        // large histograms buffer while accumulating, but not once collected.
+        double[] observations = new double[10 * Histogram.INDEX_THRESHOLD];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = i % 7;
+        }
+        Histogram boxed = Arrays.stream(observations).boxed().parallel()
+                .collect(Histograms.collector(Histogram.INDEX_THRESHOLD));
+        Histogram unboxed = Histograms.collect(Arrays.stream(observations), Histogram.INDEX_THRESHOLD);
+        assertFalse(boxed.isBuffered());
+        assertFalse(unboxed.isBuffered());
+        assertEquals(observations.length, boxed.count());
+        assertEquals(observations.length, unboxed.count());
+        assertEquals(3, unboxed.quantile(0.5), 0.5);
+    }
+
+    @Test
+    public void collectorMustMatchCollect() {
+        double[] observations = {5, 3, 3, 9, 1, 5, 5, 0, 2, 2};
+        Histogram boxed = Arrays.stream(observations).boxed().collect(Histograms.collector(10));
+        Histogram unboxed = Histograms.collect(Arrays.stream(observations), 10);
+        assertEquals(unboxed.count(), boxed.count());
+        for (double q = 0; q <= 1; q += 0.125) {
+            assertEquals(unboxed.quantile(q), boxed.quantile(q), 0);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HybridHistogramTest {
+
+    @Test
+    public void lowCardinalityMustBeExact() {
+        Random random = new Random(15);
+        HybridHistogram histogram = new HybridHistogram(11);
+        double[] observations = new double[10000];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = 100 * (1 + random.nextInt(5)) + (random.nextBoolean() ? 0 : 0.5);
+            histogram.update(observations[i]);
+        }
+        histogram.update(-0d);
+        histogram.update(0d, 2);
+        double[] sorted = Arrays.copyOf(observations, observations.length + 3);
+        Arrays.sort(sorted);
+        assertTrue(histogram.isExact());
+        assertEquals(sorted.length, histogram.count());
+
+        // quantiles must match the nearest rank in the sorted observations ...
+        for (double q = 0.01; q < 1; q += 0.01) {
+            int rank = (int) Math.ceil(q * sorted.length);
+            assertEquals(sorted[rank - 1], histogram.quantile(q), 0);
+        }
+        assertEquals(0, histogram.quantile(0), 0);
+        assertEquals(500.5, histogram.quantile(1), 0);
+
+        // ... and the cdf must count exactly.
+        for (double value = -1; value < 600; value += 50.25) {
+            int below = 0;
+            while (below < sorted.length && sorted[below] <= value) below++;
+            assertEquals((double) below / sorted.length, histogram.cdf(value), 1e-12);
+        }
+        assertEquals(histogram.quantile(0.3), histogram.toHistogram().quantile(0.3), 50);
+    }
+
+    @Test
+    public void highCardinalityMustConvertToBins() {
+        Random random = new Random(16);
+        HybridHistogram histogram = new HybridHistogram(10);
+        double[] observations = new double[1000];
+        for (int i = 0; i < observations.length; ++i) {
+            observations[i] = random.nextGaussian();
+            histogram.update(observations[i]);
+            assertEquals(i < 10, histogram.isExact());
+        }
+        assertFalse(histogram.isExact());
+        assertEquals(1000, histogram.count());
+        HistogramTest.assertFits(observations, histogram.toHistogram());
+        assertEquals(histogram.toHistogram().quantile(0.5), histogram.quantile(0.5), 0);
+    }
+}
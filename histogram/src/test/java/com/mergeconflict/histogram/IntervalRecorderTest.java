@@ -0,0 +1,85 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class IntervalRecorderTest {
+
+    @Test
+    public void intervalsMustNotOverlap() {
+        IntervalRecorder recorder = new IntervalRecorder(10);
+        for (int i = 0; i < 100; ++i) {
+            recorder.update(i);
+        }
+        Histogram first = recorder.getIntervalHistogram();
+        assertEquals(100, first.count());
+        assertEquals(99, first.max(), 0);
+
+        recorder.update(1000, 5);
+        Histogram second = recorder.getIntervalHistogram(first);
+        assertEquals(5, second.count());
+        assertEquals(1000, second.min(), 0);
+
+        // the recycled histogram must be reused for the next interval ...
+        recorder.update(2000);
+        assertSame(first, recorder.getIntervalHistogram(second));
+        assertEquals(1, first.count());
+
+        // ... and so must the internal buffer when copying out.
+        Histogram target = new Histogram(10);
+        recorder.update(3000);
+        recorder.getIntervalHistogramInto(target);
+        assertEquals(1, target.count());
+        assertEquals(3000, target.max(), 0);
+        recorder.getIntervalHistogramInto(target);
+        assertEquals(0, target.count());
+    }
+
+    @Test
+    public void mismatchedTargetMustNotEndInterval() {
+        IntervalRecorder recorder = new IntervalRecorder(10);
+        recorder.update(1);
+        try {
+            recorder.getIntervalHistogramInto(new Histogram(20));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // the interval must carry on, and the next swaps must still work.
+        recorder.update(2);
+        Histogram target = new Histogram(10);
+        recorder.getIntervalHistogramInto(target);
+        assertEquals(2, target.count());
+        recorder.update(3);
+        recorder.getIntervalHistogramInto(target);
+        assertEquals(1, target.count());
+        assertEquals(3, target.min(), 0);
+    }
+
+    @Test
+    public void intervalsMustNotLoseConcurrentUpdates() throws InterruptedException {
+        IntervalRecorder recorder = new IntervalRecorder(10);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 1000000; ++i) {
+                recorder.update(i % 1000);
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        long total = 0;
+        Histogram interval = null;
+        while (!done.get()) {
+            interval = recorder.getIntervalHistogram(interval);
+            total += interval.count();
+        }
+        writer.join();
+        total += recorder.getIntervalHistogram(interval).count();
+        assertEquals(1000000, total);
+    }
+}
@@ -0,0 +1,104 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongHistogramTest {
+
+    @Test
+    public void largeValuesMustBeExact() {
+        // consecutive values above 2^53 aren't distinguishable as doubles ...
+        long base = (1L << 60) + 1;
+        LongHistogram histogram = new LongHistogram(10);
+        for (long i = 0; i < 5; ++i) {
+            histogram.update(base + i, 2);
+        }
+        assertEquals(10, histogram.count());
+        assertEquals(base, histogram.min());
+        assertEquals(base + 4, histogram.max());
+
+        // ... but each one still has its own bin here.
+        assertEquals(base, histogram.quantile(0));
+        assertEquals(base + 4, histogram.quantile(1));
+        assertEquals(base + 2, histogram.quantile(0.5));
+        assertEquals(0.5, histogram.cdf(base + 2), 0.1);
+
+        // the distance between bins may also exceed Long.MAX_VALUE.
+        LongHistogram extremes = new LongHistogram(1);
+        extremes.update(Long.MIN_VALUE);
+        extremes.update(Long.MAX_VALUE);
+        assertEquals(0, extremes.quantile(0.5), 1);
+        assertEquals(Long.MIN_VALUE, extremes.query(0)[0]);
+        assertEquals(Long.MAX_VALUE, extremes.query(1)[0]);
+    }
+
+    @Test
+    public void smallValuesMustMatchHistogram() {
+        Random random = new Random(17);
+        LongHistogram histogram = new LongHistogram(10);
+        Histogram expected = new Histogram(10);
+        for (int i = 0; i < 100000; ++i) {
+            long observation = random.nextInt(1 << 20);
+            histogram.update(observation);
+            expected.update(observation);
+        }
+
+        // the centroids are rounded, so allow a little slack.
+        for (double q = 0.05; q < 1; q += 0.05) {
+            assertEquals(expected.quantile(q), histogram.quantile(q), 1e-3 * (1 << 20));
+        }
+        assertEquals(expected.cdf(1 << 19), histogram.cdf(1 << 19), 1e-3);
+    }
+
+    @Test
+    public void indexMustMatchScan() {
+        Random random = new Random(18);
+        LongHistogram scanned = new LongHistogram(Histogram.INDEX_THRESHOLD - 1);
+        LongHistogram indexed = new LongHistogram(Histogram.INDEX_THRESHOLD);
+        for (int i = 0; i < 100000; ++i) {
+            long observation = (long) (1e6 * random.nextGaussian());
+            scanned.update(observation);
+            indexed.update(observation);
+        }
+        for (double q = 0.05; q < 1; q += 0.05) {
+            assertEquals(scanned.quantile(q), indexed.quantile(q), 2e4);
+        }
+    }
+
+    @Test
+    public void serializationMustRoundTrip() {
+        Random random = new Random(19);
+        LongHistogram histogram = new LongHistogram(50);
+        for (int i = 0; i < 10000; ++i) {
+            histogram.update(Long.MIN_VALUE / 2 + random.nextInt(1000) * (long) 1e15);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.maxSerializedSize());
+        histogram.writeTo(buffer);
+        assertTrue(buffer.position() < 50 * 12);
+        buffer.flip();
+        LongHistogram copy = LongHistogram.readFrom(buffer);
+        assertEquals(histogram.maxBins(), copy.maxBins());
+        assertEquals(histogram.count(), copy.count());
+        assertEquals(histogram.min(), copy.min());
+        assertEquals(histogram.max(), copy.max());
+        for (double q = 0; q <= 1; q += 0.01) {
+            assertEquals(histogram.quantile(q), copy.quantile(q));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializationMustRejectHugeSizes() {
+        LongHistogram.readFrom(ByteBuffer.wrap(new byte[] {1, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0, 0}));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyQuantileMustThrow() {
+        new LongHistogram(10).quantile(0.5);
+    }
+}
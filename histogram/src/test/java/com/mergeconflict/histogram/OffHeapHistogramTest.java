@@ -0,0 +1,91 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class OffHeapHistogramTest {
+
+    @Test
+    public void offHeapMustMatchOnHeap() {
+        Random random = new Random(10);
+        double[] quantiles = {0.00, 0.01, 0.10, 0.25, 0.50, 0.75, 0.90, 0.99, 1.00};
+        for (int maxBins : new int[] {10, Histogram.INDEX_THRESHOLD + 72}) {
+            ByteBuffer slab = ByteBuffer.allocateDirect(3 * OffHeapHistogram.sizeOf(maxBins));
+            Histogram onHeap = new Histogram(maxBins);
+            OffHeapHistogram offHeap = new OffHeapHistogram(slab, OffHeapHistogram.sizeOf(maxBins), maxBins);
+            for (int i = 0; i < 20000; ++i) {
+                // mix in ascending runs and repeated values to exercise every
+                // path through the update.
+                double observation = i % 1000 < 100 ? i : Math.rint(random.nextGaussian() * 100) / 10;
+                long weight = i % 7 == 0 ? 3 : 1;
+                onHeap.update(observation, weight);
+                offHeap.update(observation, weight);
+            }
+
+            assertEquals(onHeap.count(), offHeap.count());
+            assertArrayEquals(onHeap.query(quantiles), offHeap.query(quantiles), 0);
+            for (double value = -5; value <= 20000; value += 0.37) {
+                assertEquals(onHeap.rank(value), offHeap.rank(value), 0);
+            }
+        }
+    }
+
+    @Test
+    public void wrapMustSeeExistingHistogram() {
+        int maxBins = 10, size = OffHeapHistogram.sizeOf(maxBins);
+        ByteBuffer slab = ByteBuffer.allocate(2 * size);
+        OffHeapHistogram lhs = new OffHeapHistogram(slab, 0, maxBins), rhs = new OffHeapHistogram(slab, size, maxBins);
+        for (int i = 0; i < 100; ++i) {
+            lhs.update(i);
+            rhs.update(-i);
+        }
+
+        // copying the bytes elsewhere must preserve the histograms, and
+        // neighbours in the slab must not interfere.
+        ByteBuffer copy = ByteBuffer.allocateDirect(2 * size);
+        copy.put(slab.array());
+        OffHeapHistogram wrapped = OffHeapHistogram.wrap(copy, size);
+        assertEquals(maxBins, wrapped.maxBins());
+        assertEquals(100, wrapped.count());
+        assertEquals(-99, wrapped.min(), 0);
+        assertEquals(0, wrapped.max(), 0);
+        assertEquals(rhs.quantile(0.5), wrapped.quantile(0.5), 0);
+        assertEquals(lhs.quantile(0.5), OffHeapHistogram.wrap(copy, 0).quantile(0.5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrapMustRejectUnformattedBytes() {
+        OffHeapHistogram.wrap(ByteBuffer.allocate(OffHeapHistogram.sizeOf(10)), 0);
+    }
+
+    @Test
+    public void wrapMustRejectCorruptMaxBins() {
+        ByteBuffer slab = ByteBuffer.allocate(OffHeapHistogram.sizeOf(10));
+        new OffHeapHistogram(slab, 0, 10).update(1);
+
+        // the size of a huge histogram must not overflow into a small one.
+        for (int maxBins : new int[] {0, -1, 11, Integer.MAX_VALUE, Integer.MAX_VALUE / 16}) {
+            slab.order(ByteOrder.LITTLE_ENDIAN).putInt(0, maxBins);
+            try {
+                OffHeapHistogram.wrap(slab, 0);
+                fail("expected " + maxBins + " bins to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+        slab.putInt(0, 10);
+        assertEquals(1, OffHeapHistogram.wrap(slab, 0).count());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void constructorMustRejectShortBuffer() {
+        new OffHeapHistogram(ByteBuffer.allocate(OffHeapHistogram.sizeOf(10)), 1, 10);
+    }
+}
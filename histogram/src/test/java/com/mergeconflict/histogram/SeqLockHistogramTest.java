@@ -0,0 +1,83 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SeqLockHistogramTest {
+
+    @Test
+    public void readersMustSeeConsistentSnapshots() throws InterruptedException {
+        SeqLockHistogram histogram = new SeqLockHistogram(20);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        // readers check that each snapshot's bins are in order and add up to
+        // its count, which a torn copy would be unlikely to manage ...
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; ++r) {
+            readers[r] = new Thread(() -> {
+                double[] centroids = new double[20];
+                long[] counts = new long[20];
+                long previousCount = 0;
+                while (!done.get()) {
+                    Histogram snapshot = histogram.snapshot();
+                    int bins = snapshot.copyBins(centroids, counts);
+                    long total = 0;
+                    for (int bin = 0; bin < bins; ++bin) {
+                        total += counts[bin];
+                        if (bin > 0 && centroids[bin] < centroids[bin - 1]) {
+                            failure.set("bins out of order");
+                        }
+                    }
+                    if (total != snapshot.count()) {
+                        failure.set("bins add up to " + total + " not " + snapshot.count());
+                    }
+                    if (snapshot.count() < previousCount) {
+                        failure.set("count went backwards");
+                    }
+                    previousCount = snapshot.count();
+                }
+            });
+            readers[r].start();
+        }
+
+        // ... while a single writer keeps updating.
+        Random random = new Random(13);
+        for (int i = 0; i < 200000; ++i) {
+            histogram.update(random.nextGaussian(), 1 + (i & 3));
+        }
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        assertNull(failure.get());
+        assertEquals(500000, histogram.count());
+    }
+
+    @Test
+    public void queriesMustMatchHistogram() {
+        SeqLockHistogram shared = new SeqLockHistogram(10);
+        Histogram plain = new Histogram(10);
+        Random random = new Random(14);
+        for (int i = 0; i < 1000; ++i) {
+            double observation = random.nextGaussian();
+            shared.update(observation);
+            plain.update(observation);
+        }
+
+        double[] quantiles = {0.00, 0.10, 0.50, 0.90, 1.00};
+        double[] expected = plain.query(quantiles), actual = new double[quantiles.length];
+        shared.query(quantiles, actual);
+        for (int q = 0; q < quantiles.length; ++q) {
+            assertEquals(expected[q], actual[q], 0);
+            assertEquals(expected[q], shared.quantile(quantiles[q]), 0);
+        }
+        assertEquals(plain.cdf(0), shared.cdf(0), 0);
+        shared.reset();
+        assertEquals(0, shared.count());
+    }
+}
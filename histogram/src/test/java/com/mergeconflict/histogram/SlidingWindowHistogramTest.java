@@ -0,0 +1,60 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowHistogramTest {
+
+    @Test
+    public void observationsMustAgeOutOfWindow() {
+        AtomicLong clock = new AtomicLong(1000);
+        SlidingWindowHistogram window = new SlidingWindowHistogram(10, 3, 100, clock::get);
+
+        // one slice of small observations ...
+        for (int i = 0; i < 10; ++i) {
+            window.update(i);
+        }
+        assertEquals(10, window.count());
+        assertEquals(9, window.quantile(1), 0);
+
+        // ... then one of large observations, and the window covers both ...
+        clock.addAndGet(150);
+        for (int i = 0; i < 10; ++i) {
+            window.update(1000 + i);
+        }
+        assertEquals(20, window.count());
+        assertEquals(0, window.quantile(0), 0);
+        assertEquals(1009, window.quantile(1), 0);
+
+        // ... until the first slice falls out of the window ...
+        clock.addAndGet(100);
+        assertEquals(20, window.count());
+        clock.addAndGet(100);
+        assertEquals(10, window.count());
+        assertEquals(1000, window.quantile(0), 0);
+
+        // ... and then the second, even if whole windows go by at once.
+        clock.addAndGet(1000);
+        assertEquals(0, window.count());
+        window.update(5);
+        assertEquals(1, window.snapshot().count());
+    }
+
+    @Test
+    public void queriesMustSeeLiveSlice() {
+        AtomicLong clock = new AtomicLong();
+        SlidingWindowHistogram window = new SlidingWindowHistogram(10, 4, 100, clock::get);
+        Histogram expected = new Histogram(10);
+        for (int i = 0; i < 300; ++i) {
+            clock.set(i);
+            window.update(i % 17);
+            expected.update(i % 17);
+            assertEquals(expected.count(), window.count());
+        }
+        assertEquals(expected.quantile(0.5), window.quantile(0.5), 1);
+        assertEquals(expected.cdf(8), window.cdf(8), 0.05);
+    }
+}
@@ -0,0 +1,36 @@
+package com.mergeconflict.histogram;
+
+import org.junit.Test;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedRecorderTest {
+
+    @Test
+    public void snapshotMustFitDataFromAllThreads() throws InterruptedException {
+        // record observations from several threads at once ...
+        StripedRecorder recorder = new StripedRecorder(10, 4);
+        Thread[] threads = new Thread[8];
+        double[] expected = new double[threads.length * 1000];
+        for (int t = 0; t < threads.length; ++t) {
+            Random random = new Random(t);
+            for (int i = 0; i < 1000; ++i) {
+                expected[t * 1000 + i] = random.nextGaussian();
+            }
+            int offset = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; ++i) {
+                    recorder.update(expected[offset + i]);
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        // ... and check that none were lost.
+        Histogram snapshot = recorder.snapshot();
+        assertEquals(expected.length, snapshot.count());
+        HistogramTest.assertFits(expected, snapshot);
+    }
+}